@@ -16,8 +16,8 @@
 
 import { Injectable } from '@angular/core';
 import { HttpClient, HttpHeaders, HttpParams } from '@angular/common/http';
-import { interval } from 'rxjs';
-import { map, switchMap } from 'rxjs/operators';
+import { timer } from 'rxjs';
+import { map, repeat, takeWhile } from 'rxjs/operators';
 import {  EndpointsConnector } from '../EndpointsConnector';
 
 @Injectable({
@@ -26,6 +26,9 @@ import {  EndpointsConnector } from '../EndpointsConnector';
 
 export class LoginService {
 
+  // Minimum gap between out-of-band polls, in case the server answers a poll without holding it
+  private minPollGapInMs = 1000;
+
   constructor(private http: HttpClient) { }
 
   beginAuth(User: string) {
@@ -62,12 +65,14 @@ export class LoginService {
       }));
   }
 
+  // The server holds each poll until the challenge result changes or its long-poll timeout passes, so poll again shortly after
+  // each answer, and stop once the result is no longer pending.
   getPollingChallenge(SessionId: string, TenantId: string, MechanismId: string) {
     let head = new HttpHeaders().set('Content-Type', 'application/json');
-    return interval(5000).pipe(switchMap(() => this.http.post<any>(EndpointsConnector.AdvanceAuthEndPoint, { SessionId, TenantId, MechanismId, Action: "Poll" }, { headers: head, withCredentials: true, })
-      .pipe(map(user => {
+    return this.http.post<any>(EndpointsConnector.AdvanceAuthEndPoint, { SessionId, TenantId, MechanismId, Action: "Poll" }, { headers: head, withCredentials: true, })
+      .pipe(repeat({ delay: () => timer(this.minPollGapInMs) }), takeWhile(user => user.success == true && user.Result?.Summary == "OobPending", true), map(user => {
         return user;
-      }))));
+      }));
   }
 
   logout() {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.VirtualThreads;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Throughput of blocking tenant calls, such as the SDK execute() calls run on sdkExecutor, under simulated tenant latency:
+ *  the platform thread pool with the sdkExecutor defaults against a virtual thread per task (virtualThreads.enabled).
+ *  Each invocation is a burst of REQUESTS concurrent calls; the score is calls per second.
+ *  The virtual case needs JDK 21 or later and fails its setup on older runtimes.
+ *  Run with: mvn -Pjmh test-compile exec:exec -Djmh.args=ExecutorThreadsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ExecutorThreadsBenchmark {
+
+    private static final int REQUESTS = 1000;
+
+    @Param({ "platform", "virtual" })
+    private String threads;
+
+    @Param({ "50" })
+    private long tenantLatencyInMs;
+
+    private ExecutorService executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if ("virtual".equals(threads)) {
+            executor = VirtualThreads.newThreadPerTaskExecutor("sdk-");
+        } else {
+            // sdkExecutor.corePoolSize, maxPoolSize and queueCapacity defaults
+            executor = new ThreadPoolExecutor(16, 64, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(1000),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REQUESTS)
+    public void blockingTenantCalls() {
+        CompletableFuture<?>[] calls = new CompletableFuture<?>[REQUESTS];
+        for (int i = 0; i < REQUESTS; i++) {
+            calls[i] = CompletableFuture.runAsync(this::tenantCall, executor);
+        }
+        CompletableFuture.allOf(calls).join();
+    }
+
+    private void tenantCall() {
+        try {
+            Thread.sleep(tenantLatencyInMs);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *  Heartbeat reschedule throughput with many live sessions: the timing wheel of a variably expiring Caffeine cache,
+ *  configured like SessionCache, against one ScheduledExecutorService task per session that is cancelled and
+ *  scheduled again on every heartbeat.
+ *  Run with: mvn -Pjmh test-compile exec:exec -Djmh.args=SessionExpiryBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class SessionExpiryBenchmark {
+
+    // Long enough for no session to expire during a run
+    private static final long INACTIVE_TIME_IN_MS = TimeUnit.HOURS.toMillis(1);
+
+    @Param({ "100000", "1000000" })
+    private int sessions;
+
+    private Cache<Integer, AtomicLong> wheel;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private ConcurrentHashMap<Integer, ScheduledFuture<?>> tasks;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        wheel = Caffeine.newBuilder()
+                .maximumSize(sessions)
+                .expireAfter(new Expiry<Integer, AtomicLong>() {
+                    @Override
+                    public long expireAfterCreate(Integer userId, AtomicLong lastActive, long currentTime) {
+                        return remainingNanos(lastActive.get());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Integer userId, AtomicLong lastActive, long currentTime, long currentDuration) {
+                        return remainingNanos(lastActive.get());
+                    }
+
+                    @Override
+                    public long expireAfterRead(Integer userId, AtomicLong lastActive, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .scheduler(Scheduler.systemScheduler())
+                .build();
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        tasks = new ConcurrentHashMap<>();
+        long now = System.currentTimeMillis();
+        for (int userId = 0; userId < sessions; userId++) {
+            wheel.put(userId, new AtomicLong(now));
+            tasks.put(userId, executor.schedule(Expired.INSTANCE, INACTIVE_TIME_IN_MS, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     *  What SessionCache.extend does: move lastActive while the entry is present, which reschedules it on the wheel.
+     */
+    @Benchmark
+    public AtomicLong timingWheel() {
+        long now = System.currentTimeMillis();
+        return wheel.asMap().computeIfPresent(nextUserId(), (userId, lastActive) -> {
+            lastActive.set(now);
+            return lastActive;
+        });
+    }
+
+    @Benchmark
+    public ScheduledFuture<?> scheduledTasks() {
+        ScheduledFuture<?> task = executor.schedule(Expired.INSTANCE, INACTIVE_TIME_IN_MS, TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = tasks.put(nextUserId(), task);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        return task;
+    }
+
+    private int nextUserId() {
+        return ThreadLocalRandom.current().nextInt(sessions);
+    }
+
+    private static long remainingNanos(long lastActive) {
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, lastActive + INACTIVE_TIME_IN_MS - System.currentTimeMillis()));
+    }
+
+    private enum Expired implements Runnable {
+        INSTANCE;
+
+        @Override
+        public void run() { }
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sampleapp.entity.AuthRequest;
+import com.sampleapp.entity.UISettings;
+import com.sampleapp.entity.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Per request serialization work before and after the shared Json component: a new ObjectMapper per call, as the
+ *  request paths used to do, against the prebuilt readers and writers and the streaming Result lookup.
+ *  Run with -prof gc to compare allocation per operation:
+ *  mvn -Pjmh test-compile exec:exec -Djmh.args="JsonBenchmark -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonBenchmark {
+
+    private AuthRequest authRequest;
+
+    private User user;
+
+    private JsonNode settings;
+
+    private byte[] advanceAuthenticationBody;
+
+    @Setup
+    public void setUp() throws IOException {
+        authRequest = new AuthRequest();
+        authRequest.setUsername("alice@example.com");
+        authRequest.setVersion("1.0");
+        user = new User("Alice", "alice@example.com", "alice@example.com", "Passw0rd!".toCharArray());
+        settings = Json.mapper().readTree("{\"appImage\":\"logo.png\",\"tenantUrl\":\"https://tenant.example.com\","
+                + "\"loginWidgetId\":\"w1\",\"mfaWidgetId\":\"w2\",\"oauthAppId\":\"app1\",\"oauthScopesSupported\":\"openid\","
+                + "\"isCaptchaEnabledInSettings\":\"false\",\"siteKey\":\"key\",\"sessionTimeout\":\"120\"}");
+        advanceAuthenticationBody = ("{\"success\":true,\"Result\":{\"AuthLevel\":\"Normal\",\"DisplayName\":\"Alice\","
+                + "\"Auth\":\"" + new String(new char[400]).replace('\0', 'a') + "\",\"UserId\":\"c2c7bcc6-9560-44e0-8dff\","
+                + "\"EmailAddress\":\"alice@example.com\",\"Summary\":\"LoginSuccess\"},\"Message\":null,\"ErrorCode\":null}")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String writeAuthRequestWithNewMapper() throws IOException {
+        return new ObjectMapper().writeValueAsString(authRequest);
+    }
+
+    @Benchmark
+    public String writeAuthRequestWithSharedWriter() throws IOException {
+        return Json.AUTH_REQUEST_WRITER.writeValueAsString(authRequest);
+    }
+
+    @Benchmark
+    public String writeUserWithNewMapper() throws IOException {
+        return new ObjectMapper().writeValueAsString(user);
+    }
+
+    @Benchmark
+    public String writeUserWithSharedWriter() throws IOException {
+        return Json.USER_WRITER.writeValueAsString(user);
+    }
+
+    @Benchmark
+    public UISettings readUISettingsWithNewMapper() throws IOException {
+        return new ObjectMapper().readerFor(UISettings.class).readValue(settings);
+    }
+
+    @Benchmark
+    public UISettings readUISettingsWithSharedReader() throws IOException {
+        return Json.UI_SETTINGS_READER.readValue(settings);
+    }
+
+    @Benchmark
+    public JsonNode readUserIdWithNewMapperTree() throws IOException {
+        return new ObjectMapper().readTree(advanceAuthenticationBody).path("Result").get("UserId");
+    }
+
+    @Benchmark
+    public String readUserIdWithStreamingParser() throws IOException {
+        return Json.findResultField(advanceAuthenticationBody, "UserId");
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.repos;
+
+import com.sampleapp.entity.PendingRevocation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+public interface PendingRevocationRepository extends JpaRepository<PendingRevocation, Integer> {
+
+    @Query("SELECT p FROM PendingRevocation p WHERE p.nextAttemptDateTime <= :now"
+            + " AND (p.claimedUntil IS NULL OR p.claimedUntil < :now) ORDER BY p.nextAttemptDateTime")
+    List<PendingRevocation> findDue(@Param("now") Date now, Pageable pageable);
+
+    /**
+     *  Claim a revocation for an attempt, unless another attempt holds it.
+     *  @return 1 when claimed, 0 when another attempt holds it or it is gone
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE PendingRevocation p SET p.claimedUntil = :claimedUntil WHERE p.id = :id"
+            + " AND (p.claimedUntil IS NULL OR p.claimedUntil < :now)")
+    int claim(@Param("id") Integer id, @Param("now") Date now, @Param("claimedUntil") Date claimedUntil);
+}
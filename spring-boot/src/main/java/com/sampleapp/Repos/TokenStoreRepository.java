@@ -17,14 +17,33 @@
 package com.sampleapp.repos;
 
 import com.sampleapp.entity.TokenStore;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
-public interface TokenStoreRepository extends JpaRepository<TokenStore, Integer> {
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Date;
+import java.util.List;
+
+public interface TokenStoreRepository extends JpaRepository<TokenStore, Integer>, TokenStoreRepositoryCustom {
 
     @Query("SELECT t FROM TokenStore t WHERE t.sessionUuid = :sessionUuid")
     TokenStore findBySession(@Param("sessionUuid") String sessionUuid);
 
-    @Query("SELECT t FROM TokenStore t WHERE t.mfaToken = :mfaToken")
-    TokenStore findByToken(@Param("mfaToken") String mfaToken);
+    @Query("SELECT t FROM TokenStore t WHERE t.mfaTokenHash = :mfaTokenHash")
+    TokenStore findByTokenHash(@Param("mfaTokenHash") String mfaTokenHash);
+
+    @Query("SELECT t FROM TokenStore t WHERE t.lastActiveDateTime < :cutoff ORDER BY t.lastActiveDateTime")
+    List<TokenStore> findIdleSince(@Param("cutoff") Date cutoff, Pageable pageable);
+
+    /**
+     *  Sliding expiry in one statement: set lastActiveDateTime only if the session was active since activeSince.
+     *  @return 1 when the session was extended, 0 when it does not exist or has expired
+     */
+    @Modifying
+    @Transactional
+    @Query("UPDATE TokenStore t SET t.lastActiveDateTime = :lastActive WHERE t.sessionUuid = :sessionUuid AND t.lastActiveDateTime >= :activeSince")
+    int extendSession(@Param("sessionUuid") String sessionUuid, @Param("lastActive") Date lastActive, @Param("activeSince") Date activeSince);
 }
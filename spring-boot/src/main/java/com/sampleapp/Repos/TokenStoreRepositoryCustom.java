@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.repos;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public interface TokenStoreRepositoryCustom {
+
+    /**
+     *  Set lastActiveDateTime of many sessions in one JDBC batch of UPDATE statements.
+     *  Sessions deleted in the meantime are skipped, never recreated.
+     *  @param lastActiveByUserId lastActiveDateTime per user ID
+     *  @return number of rows updated
+     */
+    int updateLastActive(Map<Integer, Date> lastActiveByUserId);
+
+    /**
+     *  Delete sessions in one JDBC batch, each only if it is still idle since cutoff.
+     *  Sessions extended in the meantime are kept.
+     *  @param userIds user IDs of the sessions
+     *  @param cutoff  sessions last active at or after this are kept
+     *  @return user IDs of the sessions deleted
+     */
+    List<Integer> deleteIdle(Collection<Integer> userIds, Date cutoff);
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.repos;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class TokenStoreRepositoryImpl implements TokenStoreRepositoryCustom {
+
+    private static final String UPDATE_LAST_ACTIVE = "UPDATE token_store SET last_active_date_time = ? WHERE user_id = ?";
+
+    private static final String DELETE_IDLE = "DELETE FROM token_store WHERE user_id = ? AND last_active_date_time < ?";
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Override
+    public int updateLastActive(Map<Integer, Date> lastActiveByUserId) {
+        if (lastActiveByUserId.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> batchArgs = new ArrayList<>(lastActiveByUserId.size());
+        for (Map.Entry<Integer, Date> entry : lastActiveByUserId.entrySet()) {
+            batchArgs.add(new Object[] { new Timestamp(entry.getValue().getTime()), entry.getKey() });
+        }
+        int updated = 0;
+        for (int count : jdbcTemplate.batchUpdate(UPDATE_LAST_ACTIVE, batchArgs)) {
+            // Drivers may report a successful statement without its row count
+            updated += count < 0 ? 1 : count;
+        }
+        return updated;
+    }
+
+    @Override
+    public List<Integer> deleteIdle(Collection<Integer> userIds, Date cutoff) {
+        List<Integer> deleted = new ArrayList<>(userIds.size());
+        if (userIds.isEmpty()) {
+            return deleted;
+        }
+        List<Integer> ids = new ArrayList<>(userIds);
+        Timestamp cutoffTimestamp = new Timestamp(cutoff.getTime());
+        List<Object[]> batchArgs = new ArrayList<>(ids.size());
+        for (Integer userId : ids) {
+            batchArgs.add(new Object[] { userId, cutoffTimestamp });
+        }
+        int[] counts = jdbcTemplate.batchUpdate(DELETE_IDLE, batchArgs);
+        for (int i = 0; i < counts.length; i++) {
+            // A statement reported without its row count is taken as a delete
+            if (counts[i] != 0) {
+                deleted.add(ids.get(i));
+            }
+        }
+        return deleted;
+    }
+}
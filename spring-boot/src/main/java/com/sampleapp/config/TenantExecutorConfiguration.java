@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.TenantCallContext;
+import com.sampleapp.utils.VirtualThreads;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+
+@Configuration
+public class TenantExecutorConfiguration {
+
+	@Value("${tenantExecutor.corePoolSize:8}")
+	private int corePoolSize;
+
+	@Value("${tenantExecutor.maxPoolSize:32}")
+	private int maxPoolSize;
+
+	@Value("${tenantExecutor.queueCapacity:500}")
+	private int queueCapacity;
+
+	@Value("${virtualThreads.enabled:false}")
+	private boolean virtualThreadsEnabled;
+
+	@Value("${sdkExecutor.corePoolSize:16}")
+	private int sdkCorePoolSize;
+
+	@Value("${sdkExecutor.maxPoolSize:64}")
+	private int sdkMaxPoolSize;
+
+	@Value("${sdkExecutor.queueCapacity:1000}")
+	private int sdkQueueCapacity;
+
+	/**
+	 *  Bounded executor for outbound tenant calls that run off the request thread.
+	 *  When the pool and queue are full the submitting thread runs the task itself.
+	 *  In virtual thread mode every task gets its own virtual thread instead.
+	 */
+	@Bean(name = "tenantExecutor")
+	public Executor tenantExecutor(MeterRegistry meterRegistry) {
+		if (useVirtualThreads()) {
+			return withCallContext(VirtualThreads.newThreadPerTaskExecutor("tenant-"));
+		}
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix("tenant-");
+		executor.setTaskDecorator(TenantCallContext::wrap);
+		executor.setCorePoolSize(corePoolSize);
+		executor.setMaxPoolSize(maxPoolSize);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+		ExecutorServiceMetrics.monitor(meterRegistry, executor.getThreadPoolExecutor(), "tenantExecutor", Collections.emptyList());
+		return executor;
+	}
+
+	/**
+	 *  Executor for the async controllers to run calls that go through the blocking CyberArk SDK.
+	 *  Kept apart from tenantExecutor, which those calls may fan out to and wait on.
+	 *  In virtual thread mode every task gets its own virtual thread instead.
+	 */
+	@Bean(name = "sdkExecutor")
+	public Executor sdkExecutor(MeterRegistry meterRegistry) {
+		if (useVirtualThreads()) {
+			return withCallContext(VirtualThreads.newThreadPerTaskExecutor("sdk-"));
+		}
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setThreadNamePrefix("sdk-");
+		executor.setTaskDecorator(TenantCallContext::wrap);
+		executor.setCorePoolSize(sdkCorePoolSize);
+		executor.setMaxPoolSize(sdkMaxPoolSize);
+		executor.setQueueCapacity(sdkQueueCapacity);
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+		ExecutorServiceMetrics.monitor(meterRegistry, executor.getThreadPoolExecutor(), "sdkExecutor", Collections.emptyList());
+		return executor;
+	}
+
+	// Tasks run with the TenantCallContext of the thread that submitted them
+	private static Executor withCallContext(Executor executor) {
+		return task -> executor.execute(TenantCallContext.wrap(task));
+	}
+
+	private boolean useVirtualThreads() {
+		return virtualThreadsEnabled && VirtualThreads.isSupported();
+	}
+}
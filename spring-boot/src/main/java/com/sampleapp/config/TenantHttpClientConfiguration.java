@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.ConnectionReuseListener;
+import com.sampleapp.utils.VirtualThreads;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.okhttp3.OkHttpConnectionPoolMetrics;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.OkHttp3ClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class TenantHttpClientConfiguration {
+
+	@Value("${tenantHttpClient.connectTimeoutInMs:5000}")
+	private long connectTimeoutInMs;
+
+	@Value("${tenantHttpClient.readTimeoutInMs:30000}")
+	private long readTimeoutInMs;
+
+	@Value("${tenantHttpClient.writeTimeoutInMs:30000}")
+	private long writeTimeoutInMs;
+
+	@Value("${tenantHttpClient.maxIdleConnections:20}")
+	private int maxIdleConnections;
+
+	@Value("${tenantHttpClient.keepAliveInSec:300}")
+	private long keepAliveInSec;
+
+	@Value("${tenantHttpClient.http2Enabled:true}")
+	private boolean http2Enabled;
+
+	@Value("${tenantHttpClient.maxRequests:64}")
+	private int maxRequests;
+
+	@Value("${tenantHttpClient.maxRequestsPerHost:64}")
+	private int maxRequestsPerHost;
+
+	@Value("${virtualThreads.enabled:false}")
+	private boolean virtualThreadsEnabled;
+
+	/**
+	 *  Outbound HTTP client shared by every tenant call, both RestTemplate and CyberArk SDK based.
+	 *  Connections are pooled and kept alive, HTTP/2 is negotiated over TLS (ALPN) when the tenant supports it,
+	 *  and responses are transparently gzip decoded since no request sets Accept-Encoding itself.
+	 *  Async calls (TenantGateway) run on the dispatcher: at most maxRequests are in flight, the rest wait in its queue
+	 *  without holding a thread.
+	 */
+	@Bean(name = "tenantHttpClient")
+	public OkHttpClient tenantHttpClient(MeterRegistry meterRegistry, TenantMetricsInterceptor metricsInterceptor,
+			TenantResilienceInterceptor resilienceInterceptor) {
+		ConnectionPool connectionPool = new ConnectionPool(maxIdleConnections, keepAliveInSec, TimeUnit.SECONDS);
+		// In virtual thread mode async calls run on virtual threads, still capped by maxRequests.
+		Dispatcher dispatcher = virtualThreadsEnabled && VirtualThreads.isSupported()
+				? new Dispatcher(VirtualThreads.newThreadPerTaskExecutor("tenant-http-"))
+				: new Dispatcher();
+		dispatcher.setMaxRequests(maxRequests);
+		dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+		OkHttpClient client = new OkHttpClient.Builder()
+				.connectionPool(connectionPool)
+				.dispatcher(dispatcher)
+				.protocols(http2Enabled
+						? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+						: Collections.singletonList(Protocol.HTTP_1_1))
+				.connectTimeout(connectTimeoutInMs, TimeUnit.MILLISECONDS)
+				.readTimeout(readTimeoutInMs, TimeUnit.MILLISECONDS)
+				.writeTimeout(writeTimeoutInMs, TimeUnit.MILLISECONDS)
+				.retryOnConnectionFailure(true)
+				.addInterceptor(metricsInterceptor)
+				.addInterceptor(resilienceInterceptor)
+				.eventListener(new ConnectionReuseListener(meterRegistry, "tenant.http.connections"))
+				.build();
+		new OkHttpConnectionPoolMetrics(connectionPool, "tenant.http.pool", Tags.empty(), maxIdleConnections)
+				.bindTo(meterRegistry);
+		Gauge.builder("tenant.http.calls", dispatcher, Dispatcher::runningCallsCount)
+				.description("Async tenant calls in flight")
+				.tag("state", "running")
+				.register(meterRegistry);
+		Gauge.builder("tenant.http.calls", dispatcher, Dispatcher::queuedCallsCount)
+				.description("Async tenant calls waiting for a dispatcher slot")
+				.tag("state", "queued")
+				.register(meterRegistry);
+		return client;
+	}
+
+	/**
+	 *  RestTemplate used for the /Security and /CDirectoryService calls, backed by the shared tenant HTTP client.
+	 *  Built from the Boot RestTemplateBuilder so it keeps the application's message converters.
+	 */
+	@Bean(name = "tenantRestTemplate")
+	public RestTemplate tenantRestTemplate(RestTemplateBuilder builder, OkHttpClient tenantHttpClient) {
+		return builder
+				.requestFactory(() -> new OkHttp3ClientHttpRequestFactory(tenantHttpClient))
+				.build();
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.TenantCallContext;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Records every logical tenant operation (first two path segments, e.g. /security/startauthentication) made through
+ *  the shared tenant HTTP client, tagged by operation and by the flow of the browser request it is made for:
+ *  - tenant.http.requests, a latency timer with percentile histogram, including retries,
+ *  - tenant.http.responses, a counter per status code, io_error or circuit_open,
+ *  - tenant.http.payload, request body sizes in bytes where the size is known, and response body sizes in bytes as read,
+ *    so chunked and gzip responses are counted too.
+ */
+@Component
+public class TenantMetricsInterceptor implements Interceptor {
+
+	private static final String OTHER_OPERATION = "other";
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${tenantMetrics.maxOperations:100}")
+	private int maxOperations;
+
+	private final ConcurrentHashMap<String, OperationMeters> meters = new ConcurrentHashMap<>();
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		TenantCallContext context = request.tag(TenantCallContext.class);
+		OperationMeters operation = getMeters(TenantResilienceInterceptor.endpointOf(request),
+				(context == null ? TenantCallContext.current() : context).getFlow());
+		RequestBody body = request.body();
+		if (body != null && body.contentLength() >= 0) {
+			operation.requestSize.record(body.contentLength());
+		}
+		long start = System.nanoTime();
+		try {
+			Response response = chain.proceed(request);
+			operation.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			operation.status(String.valueOf(response.code())).increment();
+			ResponseBody responseBody = response.body();
+			if (responseBody == null) {
+				return response;
+			}
+			return response.newBuilder().body(new CountingResponseBody(responseBody, operation.responseSize)).build();
+		} catch (IOException ex) {
+			operation.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			operation.status(ex instanceof TenantResilienceInterceptor.CircuitOpenException ? "circuit_open" : "io_error").increment();
+			throw ex;
+		}
+	}
+
+	private OperationMeters getMeters(String operation, String flow) {
+		String key = operation + ' ' + flow;
+		OperationMeters cached = meters.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		if (meters.size() >= maxOperations) {
+			operation = OTHER_OPERATION;
+			key = operation + ' ' + flow;
+		}
+		String tag = operation;
+		return meters.computeIfAbsent(key, k -> new OperationMeters(tag, flow));
+	}
+
+	/**
+	 *  Records the bytes read from a response body once it is read to the end or closed.
+	 */
+	private static final class CountingResponseBody extends ResponseBody {
+		private final ResponseBody delegate;
+		private final BufferedSource source;
+
+		private CountingResponseBody(ResponseBody delegate, DistributionSummary size) {
+			this.delegate = delegate;
+			this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+				private long bytesRead;
+				private boolean recorded;
+
+				@Override
+				public long read(Buffer sink, long byteCount) throws IOException {
+					long read = super.read(sink, byteCount);
+					if (read == -1) {
+						record();
+					} else {
+						bytesRead += read;
+					}
+					return read;
+				}
+
+				@Override
+				public void close() throws IOException {
+					record();
+					super.close();
+				}
+
+				private void record() {
+					if (!recorded) {
+						recorded = true;
+						size.record(bytesRead);
+					}
+				}
+			});
+		}
+
+		@Override
+		public MediaType contentType() {
+			return delegate.contentType();
+		}
+
+		@Override
+		public long contentLength() {
+			return delegate.contentLength();
+		}
+
+		@Override
+		public BufferedSource source() {
+			return source;
+		}
+	}
+
+	private class OperationMeters {
+		private final String operation;
+		private final String flow;
+		private final Timer latency;
+		private final DistributionSummary requestSize;
+		private final DistributionSummary responseSize;
+		private final ConcurrentHashMap<String, Counter> statuses = new ConcurrentHashMap<>();
+
+		private OperationMeters(String operation, String flow) {
+			this.operation = operation;
+			this.flow = flow;
+			this.latency = Timer.builder("tenant.http.requests")
+					.description("Latency of tenant operations, including retries")
+					.tag("operation", operation).tag("flow", flow)
+					.publishPercentiles(0.5, 0.95, 0.99)
+					.publishPercentileHistogram()
+					.minimumExpectedValue(Duration.ofMillis(1))
+					.maximumExpectedValue(Duration.ofSeconds(60))
+					.register(meterRegistry);
+			this.requestSize = payload("request");
+			this.responseSize = payload("response");
+		}
+
+		private DistributionSummary payload(String direction) {
+			return DistributionSummary.builder("tenant.http.payload")
+					.description("Body size of tenant requests and responses")
+					.baseUnit("bytes")
+					.tag("operation", operation).tag("flow", flow).tag("direction", direction)
+					.register(meterRegistry);
+		}
+
+		private Counter status(String status) {
+			return statuses.computeIfAbsent(status, s -> Counter.builder("tenant.http.responses")
+					.description("Tenant operations by response status")
+					.tag("operation", operation).tag("flow", flow).tag("status", s)
+					.register(meterRegistry));
+		}
+	}
+}
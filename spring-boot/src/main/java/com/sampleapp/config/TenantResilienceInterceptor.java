@@ -0,0 +1,287 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.CircuitBreaker;
+import com.sampleapp.utils.LatencyWindow;
+import com.sampleapp.utils.RetryBudget;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Resilience layer of the shared tenant HTTP client, so it covers RestTemplate, TenantGateway and SDK calls alike.
+ *  Per tenant endpoint (first two path segments, e.g. /security/startauthentication) it applies
+ *  - a read timeout derived from the observed p99 latency of the endpoint, for idempotent calls only,
+ *  - a circuit breaker that fails calls fast while the endpoint keeps failing (I/O errors, timeouts, 5xx, 429),
+ *  - retries with jittered exponential backoff, for idempotent calls only and within a retry budget.
+ *  Calls tagged Enqueued run on the OkHttp dispatcher and are not retried here, as backing off would hold
+ *  a dispatcher thread and one of its request slots.
+ *  Breaker state, rejections, retries and current timeouts are published as tenant.circuit.* / tenant.retries /
+ *  tenant.timeout metrics tagged by endpoint.
+ */
+@Component
+public class TenantResilienceInterceptor implements Interceptor {
+
+	/**
+	 *  Thrown instead of calling the tenant while the circuit breaker of the endpoint is open.
+	 */
+	public static class CircuitOpenException extends IOException {
+		public CircuitOpenException(String endpoint) {
+			super("Tenant endpoint " + endpoint + " is unavailable, failing fast");
+		}
+	}
+
+	/**
+	 *  Request tag of calls enqueued on the OkHttp dispatcher.
+	 */
+	public static final class Enqueued {
+		public static final Enqueued INSTANCE = new Enqueued();
+
+		private Enqueued() { }
+	}
+
+	private static final Set<String> IDEMPOTENT_METHODS = new HashSet<>(Arrays.asList("GET", "HEAD", "OPTIONS", "PUT", "DELETE"));
+
+	private static final String OTHER_ENDPOINT = "other";
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Value("${tenantResilience.enabled:true}")
+	private boolean enabled;
+
+	@Value("${tenantResilience.failureRateThreshold:50}")
+	private int failureRateThreshold;
+
+	@Value("${tenantResilience.slidingWindowSize:20}")
+	private int slidingWindowSize;
+
+	@Value("${tenantResilience.minimumCalls:10}")
+	private int minimumCalls;
+
+	@Value("${tenantResilience.openStateInSec:30}")
+	private long openStateInSec;
+
+	@Value("${tenantResilience.latencyWindowSize:200}")
+	private int latencyWindowSize;
+
+	@Value("${tenantResilience.minLatencySamples:20}")
+	private int minLatencySamples;
+
+	@Value("${tenantResilience.timeoutMultiplier:2.0}")
+	private double timeoutMultiplier;
+
+	@Value("${tenantResilience.minTimeoutInMs:1000}")
+	private long minTimeoutInMs;
+
+	@Value("${tenantResilience.maxTimeoutInMs:30000}")
+	private long maxTimeoutInMs;
+
+	@Value("${tenantResilience.maxRetries:2}")
+	private int maxRetries;
+
+	@Value("${tenantResilience.retryBudgetRatio:0.1}")
+	private double retryBudgetRatio;
+
+	@Value("${tenantResilience.minRetriesPerSec:1}")
+	private double minRetriesPerSec;
+
+	@Value("${tenantResilience.backoffBaseInMs:50}")
+	private long backoffBaseInMs;
+
+	@Value("${tenantResilience.backoffMaxInMs:1000}")
+	private long backoffMaxInMs;
+
+	// POST endpoints that only read, and so may be retried like GET
+	@Value("${tenantResilience.idempotentPostEndpoints:/cdirectoryservice/getuser,/saasmanage/getapplication,/authprofile/getprofile,/redrock/query}")
+	private String idempotentPostEndpoints;
+
+	@Value("${tenantResilience.maxEndpoints:100}")
+	private int maxEndpoints;
+
+	private Set<String> idempotentPosts;
+
+	private final ConcurrentHashMap<String, EndpointGuard> guards = new ConcurrentHashMap<>();
+
+	@PostConstruct
+	void initIdempotentPosts() {
+		List<String> endpoints = Arrays.asList(idempotentPostEndpoints.toLowerCase(Locale.ROOT).split("\\s*,\\s*"));
+		idempotentPosts = new HashSet<>(endpoints);
+	}
+
+	@Override
+	public Response intercept(Chain chain) throws IOException {
+		Request request = chain.request();
+		if (!enabled) {
+			return chain.proceed(request);
+		}
+		EndpointGuard guard = getGuard(endpointOf(request));
+		if (!guard.breaker.tryAcquire()) {
+			guard.rejected.increment();
+			throw new CircuitOpenException(guard.endpoint);
+		}
+		guard.retryBudget.deposit();
+		boolean idempotent = isIdempotent(request, guard.endpoint);
+		boolean retryable = idempotent && request.tag(Enqueued.class) == null;
+
+		for (int attempt = 0; ; attempt++) {
+			// A non-idempotent call, e.g. a login step, keeps the client's read timeout, one slow response must not abort it
+			Chain attemptChain = idempotent
+					? chain.withReadTimeout((int) guard.latency.timeoutMillis(timeoutMultiplier, minTimeoutInMs, maxTimeoutInMs), TimeUnit.MILLISECONDS)
+					: chain;
+			long start = System.nanoTime();
+			try {
+				Response response = attemptChain.proceed(request);
+				guard.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				if (!isFailure(response)) {
+					guard.breaker.onSuccess();
+					return response;
+				}
+				guard.breaker.onFailure();
+				if (!mayRetry(guard, retryable, attempt)) {
+					return response;
+				}
+				response.close();
+			} catch (IOException ex) {
+				if (ex instanceof SocketTimeoutException) {
+					// The call took at least the timeout, count it so a slowing endpoint raises its own p99.
+					guard.latency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				}
+				guard.breaker.onFailure();
+				if (!mayRetry(guard, retryable, attempt) || chain.call().isCanceled()) {
+					throw ex;
+				}
+			} catch (RuntimeException | Error ex) {
+				// Record an outcome in any case, or a half open breaker would wait for its probe forever
+				guard.breaker.onFailure();
+				throw ex;
+			}
+			backoff(attempt);
+			if (!guard.breaker.tryAcquire()) {
+				guard.rejected.increment();
+				throw new CircuitOpenException(guard.endpoint);
+			}
+		}
+	}
+
+	private boolean mayRetry(EndpointGuard guard, boolean retryable, int attempt) {
+		if (!retryable || attempt >= maxRetries) {
+			return false;
+		}
+		if (!guard.retryBudget.tryWithdraw()) {
+			guard.budgetExhausted.increment();
+			return false;
+		}
+		guard.retried.increment();
+		return true;
+	}
+
+	private void backoff(int attempt) throws IOException {
+		try {
+			Thread.sleep(RetryBudget.backoffMillis(attempt, backoffBaseInMs, backoffMaxInMs));
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while backing off before retry");
+		}
+	}
+
+	private boolean isIdempotent(Request request, String endpoint) {
+		String method = request.method();
+		return IDEMPOTENT_METHODS.contains(method) || ("POST".equals(method) && idempotentPosts.contains(endpoint));
+	}
+
+	private static boolean isFailure(Response response) {
+		return response.code() >= 500 || response.code() == 429;
+	}
+
+	// First two path segments, lower case: /Security/StartAuthentication, /OAuth2/Token/{appId} -> /oauth2/token
+	static String endpointOf(Request request) {
+		List<String> segments = request.url().pathSegments();
+		StringBuilder endpoint = new StringBuilder();
+		for (int i = 0; i < Math.min(2, segments.size()); i++) {
+			endpoint.append('/').append(segments.get(i));
+		}
+		return endpoint.length() == 0 ? "/" : endpoint.toString().toLowerCase(Locale.ROOT);
+	}
+
+	private EndpointGuard getGuard(String endpoint) {
+		EndpointGuard guard = guards.get(endpoint);
+		if (guard != null) {
+			return guard;
+		}
+		String key = guards.size() < maxEndpoints ? endpoint : OTHER_ENDPOINT;
+		return guards.computeIfAbsent(key, EndpointGuard::new);
+	}
+
+	private class EndpointGuard {
+		private final String endpoint;
+		private final CircuitBreaker breaker;
+		private final LatencyWindow latency;
+		private final RetryBudget retryBudget;
+		private final Counter rejected;
+		private final Counter retried;
+		private final Counter budgetExhausted;
+
+		private EndpointGuard(String endpoint) {
+			this.endpoint = endpoint;
+			this.breaker = new CircuitBreaker(failureRateThreshold, slidingWindowSize, minimumCalls,
+					TimeUnit.SECONDS.toMillis(openStateInSec));
+			this.latency = new LatencyWindow(latencyWindowSize, minLatencySamples);
+			this.retryBudget = new RetryBudget(retryBudgetRatio, minRetriesPerSec, Math.max(1, minRetriesPerSec * 10));
+			Gauge.builder("tenant.circuit.state", breaker, b -> b.getState().ordinal())
+					.description("Circuit breaker state: 0 closed, 1 open, 2 half open")
+					.tag("endpoint", endpoint)
+					.register(meterRegistry);
+			Gauge.builder("tenant.timeout", latency, l -> l.timeoutMillis(timeoutMultiplier, minTimeoutInMs, maxTimeoutInMs))
+					.description("Read timeout currently applied, derived from the observed p99 latency")
+					.baseUnit("milliseconds")
+					.tag("endpoint", endpoint)
+					.register(meterRegistry);
+			this.rejected = Counter.builder("tenant.circuit.rejected")
+					.description("Calls failed fast by an open circuit breaker")
+					.tag("endpoint", endpoint)
+					.register(meterRegistry);
+			this.retried = Counter.builder("tenant.retries")
+					.description("Retries of idempotent tenant calls")
+					.tag("endpoint", endpoint).tag("outcome", "retried")
+					.register(meterRegistry);
+			this.budgetExhausted = Counter.builder("tenant.retries")
+					.description("Retries of idempotent tenant calls")
+					.tag("endpoint", endpoint).tag("outcome", "budget_exhausted")
+					.register(meterRegistry);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.TokenFingerprint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *  Brings an existing token_store table up to the current schema before the application serves requests:
+ *  adds the mfa_token_hash column, backfills it for existing rows in batches and creates the unique indexes
+ *  that session and MFA token lookups go through and the index the session reaper scans, named as Hibernate names
+ *  them for the TokenStore entity. Every step is a no-op on an up to date table.
+ */
+@Component
+@DependsOn("entityManagerFactory")
+public class TokenStoreMigration {
+
+	private static final String SELECT_UNHASHED = "SELECT user_id, mfa_token FROM token_store"
+			+ " WHERE mfa_token_hash IS NULL AND mfa_token IS NOT NULL AND mfa_token <> '' AND user_id > ?"
+			+ " ORDER BY user_id LIMIT ?";
+
+	private static final String UPDATE_HASH = "UPDATE token_store SET mfa_token_hash = ? WHERE user_id = ? AND mfa_token = ?";
+
+	private final Logger logger = LoggerFactory.getLogger(TokenStoreMigration.class);
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Value("${tokenStoreMigration.batchSize:1000}")
+	private int batchSize;
+
+	@PostConstruct
+	void migrate() {
+		jdbcTemplate.execute("ALTER TABLE token_store ADD COLUMN IF NOT EXISTS mfa_token_hash CHAR(64)");
+		int backfilled = backfillMfaTokenHash();
+		if (backfilled > 0) {
+			logger.info("Backfilled MFA token fingerprints of {} sessions", backfilled);
+		}
+		addUniqueConstraint("uk_token_store_session_uuid", "session_uuid");
+		addUniqueConstraint("uk_token_store_mfa_token_hash", "mfa_token_hash");
+		jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_token_store_last_active_date_time ON token_store (last_active_date_time)");
+	}
+
+	private int backfillMfaTokenHash() {
+		int backfilled = 0;
+		int lastUserId = Integer.MIN_VALUE;
+		while (true) {
+			List<Object[]> batchArgs = new ArrayList<>();
+			for (Object[] row : jdbcTemplate.query(SELECT_UNHASHED,
+					(rs, rowNum) -> new Object[] { rs.getInt("user_id"), rs.getString("mfa_token") }, lastUserId, batchSize)) {
+				lastUserId = (Integer) row[0];
+				String mfaToken = (String) row[1];
+				batchArgs.add(new Object[] { TokenFingerprint.of(mfaToken), lastUserId, mfaToken });
+			}
+			if (batchArgs.isEmpty()) {
+				return backfilled;
+			}
+			jdbcTemplate.batchUpdate(UPDATE_HASH, batchArgs);
+			backfilled += batchArgs.size();
+		}
+	}
+
+	// Lookups still work without its index, only slower, so a failure does not stop the application
+	private void addUniqueConstraint(String name, String column) {
+		try {
+			jdbcTemplate.execute("ALTER TABLE token_store ADD CONSTRAINT IF NOT EXISTS " + name + " UNIQUE (" + column + ")");
+		} catch (DataAccessException ex) {
+			logger.error("Adding constraint " + name + " to token_store failed : ", ex);
+		}
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.config;
+
+import com.sampleapp.utils.VirtualThreads;
+import org.apache.coyote.ProtocolHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ *  Opt-in virtual thread mode (virtualThreads.enabled), for runtimes on JDK 21 or later.
+ *  Tomcat handles each request on its own virtual thread; tenantExecutor, sdkExecutor and the tenant HTTP client
+ *  dispatcher switch over as well. On older JDKs the setting is ignored and the platform thread pools are kept.
+ */
+@Configuration
+@ConditionalOnProperty(name = "virtualThreads.enabled", havingValue = "true")
+public class VirtualThreadConfiguration {
+
+	private final Logger logger = LoggerFactory.getLogger(VirtualThreadConfiguration.class);
+
+	@Bean
+	public TomcatProtocolHandlerCustomizer<ProtocolHandler> virtualThreadProtocolHandlerCustomizer() {
+		if (!VirtualThreads.isSupported()) {
+			logger.warn("virtualThreads.enabled is set but Java {} has no virtual threads, using platform thread pools",
+					System.getProperty("java.version"));
+			return protocolHandler -> { };
+		}
+		logger.info("Running request handling and tenant calls on virtual threads");
+		return protocolHandler -> protocolHandler.setExecutor(VirtualThreads.newThreadPerTaskExecutor("http-vt-"));
+	}
+}
@@ -23,12 +23,13 @@ import com.sampleapp.entity.DBUser;
 import com.sampleapp.entity.Response;
 import com.sampleapp.entity.SessionMetadata;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sampleapp.config.AuthFilter;
 import com.sampleapp.service.AuthService;
 import com.sampleapp.service.SettingsService;
 import com.sampleapp.service.UserService;
+import com.sampleapp.utils.Futures;
+import com.sampleapp.utils.Json;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,11 +39,12 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.UnsupportedEncodingException;
 import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
 
 @RestController
 public class AuthController {
@@ -57,34 +59,46 @@ public class AuthController {
 	private final Logger logger = LoggerFactory.getLogger(AuthController.class);
 
 	@PostMapping("auth/beginAuth")
-	public ResponseEntity<JsonNode> beginAuth(@RequestBody AuthRequest authRequest, HttpServletResponse response) {
+	public CompletableFuture<ResponseEntity<JsonNode>> beginAuth(@RequestBody AuthRequest authRequest, HttpServletResponse response) {
 		logger.info("AuthRequest received");
 		try {
 			Boolean enableMFAWidgetFlow = false; //flow1 endpoint so setting to false
-			return this.authService.startAuthenticationWithObject(authRequest,response, enableMFAWidgetFlow);
+			return this.authService.startAuthenticationWithObject(authRequest,response, enableMFAWidgetFlow)
+					.exceptionally(this::internalServerError);
 		} catch (Exception e) {
-			logger.error("Exception occurred : ", e);
-			return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+			return CompletableFuture.completedFuture(internalServerError(e));
 		}
 
 	}
 
 	@PostMapping("auth/advanceAuth")
-	public ResponseEntity<JsonNode> advanceAuth(@RequestBody JsonNode advAuthRequest,HttpServletResponse response) throws UnsupportedEncodingException {
-		return this.authService.advanceAuthenticationByObject(advAuthRequest,response);
+	public DeferredResult<ResponseEntity<?>> advanceAuth(@RequestBody JsonNode advAuthRequest,HttpServletResponse response) {
+		CompletableFuture<ResponseEntity<?>> advAuth = this.authService.advanceAuthenticationByObject(advAuthRequest,response);
+		DeferredResult<ResponseEntity<?>> result = new DeferredResult<>();
+		// Held out-of-band polls stop waiting when the request times out or fails
+		result.onCompletion(() -> advAuth.cancel(false));
+		advAuth.whenComplete((advAuthResp, ex) -> {
+			if (ex != null) {
+				result.setErrorResult(Futures.unwrap(ex));
+			} else {
+				result.setResult(advAuthResp);
+			}
+		});
+		return result;
 	}
 
 	@PostMapping("auth/beginChallenge")
-	public ResponseEntity<JsonNode> beginChallenge(HttpServletRequest request, @RequestBody AuthRequest authRequest) {
+	public CompletableFuture<ResponseEntity<JsonNode>> beginChallenge(HttpServletRequest request, @RequestBody AuthRequest authRequest) {
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
 		if (token != null){
 			return this.authService.startChallenge(token, authRequest);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return CompletableFuture.completedFuture(
+				new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN));
 	}
 
 	@PostMapping("auth/out")
-	public ResponseEntity<JsonNode> logout(HttpServletRequest request,HttpServletResponse response) {
+	public CompletableFuture<ResponseEntity<JsonNode>> logout(HttpServletRequest request,HttpServletResponse response) {
 		Cookie[] cookieArray = request.getCookies();
 		Boolean enableMFAWidgetFlow = AuthFilter.readServletCookie(request,"flow").get().equals("flow3");
 		String authToken = "";
@@ -97,16 +111,16 @@ public class AuthController {
 	}
 	
 	@PostMapping("auth/logoutSession")
-	public ResponseEntity<JsonNode> logoutBySessionId(@RequestBody SessionMetadata sessionMetadata, HttpServletResponse servletResponse) {
-		Response response = new Response();
+	public CompletableFuture<ResponseEntity<JsonNode>> logoutBySessionId(@RequestBody SessionMetadata sessionMetadata, HttpServletResponse servletResponse) {
 		try {
-			authService.logoutSession(sessionMetadata.getSessionUuid(), servletResponse);
-			return new ResponseEntity(response, HttpStatus.OK);
+			return authService.logoutSession(sessionMetadata.getSessionUuid(), servletResponse)
+					.thenApply(result -> {
+						ResponseEntity<JsonNode> ok = new ResponseEntity(new Response(), HttpStatus.OK);
+						return ok;
+					})
+					.exceptionally(this::internalServerError);
 		} catch(Exception ex){
-			logger.error("Exception occurred : ", ex);
-			response.Success = false;
-			response.ErrorMessage = ex.getMessage();
-			return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return CompletableFuture.completedFuture(internalServerError(ex));
 		}
 	}
 
@@ -133,8 +147,7 @@ public class AuthController {
 
 			if (user != null) {
 				String sessionUuid = authService.CreateSession(user.getId(), null);
-				ObjectMapper objectMapper = new ObjectMapper();
-				ObjectNode objectNode = objectMapper.createObjectNode();
+				ObjectNode objectNode = Json.createObjectNode();
 				objectNode.put("SessionUuid",sessionUuid);
 				objectNode.put("MFAUserName", user.getName());
 				objectNode.put("MobileBackgroundInactiveTimeout", settingsService.getMobileInactiveTimeInSec());
@@ -155,30 +168,23 @@ public class AuthController {
 	}
 
 	@PostMapping({ "/CompleteLogin" })
-	public ResponseEntity<Response> CompleteLogin(@RequestBody AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse){
-		Response response = new Response();
+	public CompletableFuture<ResponseEntity<Response>> CompleteLogin(@RequestBody AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse){
 		try {
-			response.Result =authService.CompleteLogin(advanceLoginRequest,httpServletResponse);
-			return new ResponseEntity(response, HttpStatus.OK);
+			return authService.CompleteLogin(advanceLoginRequest,httpServletResponse)
+					.handle(this::toResponse);
 		}catch (Exception ex){
-			response.Success = false;
-			response.ErrorMessage = ex.getMessage();
-			return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return CompletableFuture.completedFuture(toResponse(null, ex));
 		}
 	}
 
 	@PostMapping({ "/setAuthCookie" })
-	public ResponseEntity<Response> SetAuthCookie(HttpServletRequest request, @RequestBody AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse){
-		Response response = new Response();
+	public CompletableFuture<ResponseEntity<Response>> SetAuthCookie(HttpServletRequest request, @RequestBody AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse){
 		try {
 			Boolean enableMFAWidgetFlow = AuthFilter.readServletCookie(request,"flow").get().equals("flow3");
-			JsonNode data = authService.setAuthCookie(enableMFAWidgetFlow, advanceLoginRequest, httpServletResponse);
-			response.Result = data;
-			return new ResponseEntity(response, HttpStatus.OK);
+			return authService.setAuthCookie(enableMFAWidgetFlow, advanceLoginRequest, httpServletResponse)
+					.handle(this::toResponse);
 		}catch (Exception ex){
-			response.Success = false;
-			response.ErrorMessage = ex.getMessage();
-			return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
+			return CompletableFuture.completedFuture(toResponse(null, ex));
 		}
 	}
 
@@ -189,8 +195,7 @@ public class AuthController {
 			if (request.getParameter("error") != null){
 				throw new Exception(request.getParameter("error_description"));
 			}
-			ObjectMapper objectMapper = new ObjectMapper();
-			ObjectNode objectNode = objectMapper.createObjectNode();
+			ObjectNode objectNode = Json.createObjectNode();
 			objectNode.put("AuthorizationCode", request.getParameterMap().get("code")[0]);
 			response.Result = objectNode;
 			return new ResponseEntity(response, HttpStatus.OK);
@@ -200,4 +205,21 @@ public class AuthController {
 			return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
 		}
 	}
-}
\ No newline at end of file
+
+	private ResponseEntity<JsonNode> internalServerError(Throwable ex) {
+		Throwable cause = Futures.unwrap(ex);
+		logger.error("Exception occurred : ", cause);
+		return new ResponseEntity(new Response(false, cause.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+	}
+
+	private ResponseEntity<Response> toResponse(JsonNode result, Throwable ex) {
+		Response response = new Response();
+		if (ex != null) {
+			response.Success = false;
+			response.ErrorMessage = Futures.unwrap(ex).getMessage();
+			return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
+		}
+		response.Result = result;
+		return new ResponseEntity(response, HttpStatus.OK);
+	}
+}
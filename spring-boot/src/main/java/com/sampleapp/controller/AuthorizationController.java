@@ -16,7 +16,6 @@
 
 package com.sampleapp.controller;
 
-import com.cyberark.entities.TokenHolder;
 import com.sampleapp.entity.AuthFlows;
 import com.sampleapp.entity.AuthorizationFlow;
 import com.sampleapp.entity.AuthorizationMetadataRequest;
@@ -25,18 +24,22 @@ import com.sampleapp.entity.PKCEMetaData;
 import com.sampleapp.entity.Response;
 import com.sampleapp.entity.OIDCTokens;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sampleapp.service.BaseAuthorizationService;
+import com.sampleapp.utils.Futures;
+import com.sampleapp.utils.Json;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
 import java.util.EnumMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import com.sampleapp.config.AuthFilter;
 
@@ -48,6 +51,10 @@ public class AuthorizationController {
     @Autowired
     public AuthFlows authFlows;
 
+    @Autowired
+    @Qualifier("sdkExecutor")
+    private Executor sdkExecutor;
+
     @GetMapping("pkceMetaData")
     public ResponseEntity<JsonNode> getPKCEMetaData() {
 
@@ -76,7 +83,7 @@ public class AuthorizationController {
         {
             String authorizeUrl = this.authFlows.getEnumMap().get(metadataRequest.authFlow).buildAuthorizeURL(metadataRequest);
 
-            ObjectNode objectNode = new ObjectMapper().createObjectNode();
+            ObjectNode objectNode = Json.createObjectNode();
             objectNode.put("authorizeUrl", authorizeUrl);
             response.Result = objectNode;
 
@@ -91,57 +98,30 @@ public class AuthorizationController {
     }
 
     @PostMapping("tokenSet")
-    public ResponseEntity<JsonNode> getTokenSet(@RequestBody TokenMetadataRequest metadataRequest) {
+    public CompletableFuture<ResponseEntity<JsonNode>> getTokenSet(@RequestBody TokenMetadataRequest metadataRequest) {
 
         logger.info("Get Token Set");
-        Response response = new Response();
-        TokenHolder tokenHolder;
         EnumMap<AuthorizationFlow, BaseAuthorizationService> serviceEnumMap = this.authFlows.getEnumMap();
-        try
-        {
+        return respondAsync(() -> {
             switch (metadataRequest.grantType)
             {
                 case authorization_code:
-                    tokenHolder = serviceEnumMap.get(metadataRequest.authFlow).getTokenSet(metadataRequest);
-                    break;
+                    return serviceEnumMap.get(metadataRequest.authFlow).getTokenSet(metadataRequest);
                 case client_credentials:
-                    tokenHolder = serviceEnumMap.get(AuthorizationFlow.OAUTH).getTokenSetWithClientCreds(metadataRequest);
-                    break;
+                    return serviceEnumMap.get(AuthorizationFlow.OAUTH).getTokenSetWithClientCreds(metadataRequest);
                 case password:
-                    tokenHolder = serviceEnumMap.get(AuthorizationFlow.OAUTH).getTokenSetWithPassword(metadataRequest);
-                    break;
+                    return serviceEnumMap.get(AuthorizationFlow.OAUTH).getTokenSetWithPassword(metadataRequest);
                 default:
                     throw new Exception("Invalid Grant type is sent");
             }
-            response.Result = tokenHolder;
-            return new ResponseEntity(response, HttpStatus.OK);
-        }
-        catch (Exception ex) {
-            logger.error("Exception occurred : ", ex);
-            response.Success = false;
-            response.ErrorMessage = ex.getMessage();
-            return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        });
     }
 
     @PostMapping("refreshToken")
-    public ResponseEntity<JsonNode> getRefreshToken(@RequestBody TokenMetadataRequest metadataRequest) {
+    public CompletableFuture<ResponseEntity<JsonNode>> getRefreshToken(@RequestBody TokenMetadataRequest metadataRequest) {
 
         logger.info("Get Refresh Token");
-        Response response = new Response();
-        TokenHolder tokenHolder;
-        try
-        {
-            tokenHolder = this.authFlows.getEnumMap().get(metadataRequest.authFlow).getRefreshToken(metadataRequest);
-            response.Result = tokenHolder;
-            return new ResponseEntity(response, HttpStatus.OK);
-        }
-        catch (Exception ex) {
-            logger.error("Exception occurred : ", ex);
-            response.Success = false;
-            response.ErrorMessage = ex.getMessage();
-            return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        return respondAsync(() -> this.authFlows.getEnumMap().get(metadataRequest.authFlow).getRefreshToken(metadataRequest));
     }
 
     @PostMapping("tokenRequestPreview")
@@ -163,21 +143,10 @@ public class AuthorizationController {
     }
 
     @PostMapping("revokeToken")
-    public ResponseEntity<JsonNode> revokeToken(@RequestBody OIDCTokens oidcTokens) {
+    public CompletableFuture<ResponseEntity<JsonNode>> revokeToken(@RequestBody OIDCTokens oidcTokens) {
 
         logger.info("revokeToken");
-        Response response = new Response();
-        try
-        {
-            response.Result = this.authFlows.getEnumMap().get(AuthorizationFlow.OIDC).revokeToken(oidcTokens);
-            return new ResponseEntity(response, HttpStatus.OK);
-        }
-        catch (Exception ex) {
-            logger.error("Exception occurred : ", ex);
-            response.Success = false;
-            response.ErrorMessage = ex.getMessage();
-            return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        return respondAsync(() -> this.authFlows.getEnumMap().get(AuthorizationFlow.OIDC).revokeToken(oidcTokens));
     }
 
     @GetMapping("claims")
@@ -200,39 +169,40 @@ public class AuthorizationController {
     }
 
     @GetMapping("oidc/userInfo")
-    public ResponseEntity<JsonNode> userInfo(@RequestParam String accessToken) throws IOException {
+    public CompletableFuture<ResponseEntity<JsonNode>> userInfo(@RequestParam String accessToken) {
 
         logger.info("Get UserInfo");
-        Response response = new Response();
-        try
-        {
-            String accessTokenString = AuthFilter.cleanIt(accessToken);
-            response.Result = this.authFlows.getEnumMap().get(AuthorizationFlow.OIDC).getUserInfo(accessTokenString);
-            return new ResponseEntity(response, HttpStatus.OK);
-        }
-        catch (Exception ex) {
-            logger.error("Exception occurred : ", ex);
-            response.Success = false;
-            response.ErrorMessage = ex.getMessage();
-            return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        String accessTokenString = AuthFilter.cleanIt(accessToken);
+        return respondAsync(() -> this.authFlows.getEnumMap().get(AuthorizationFlow.OIDC).getUserInfo(accessTokenString));
     }
 
     @PostMapping("introspect")
-    public ResponseEntity<JsonNode> introspect(@RequestParam String accessToken) {
+    public CompletableFuture<ResponseEntity<JsonNode>> introspect(@RequestParam String accessToken) {
+
         logger.info("Introspect Token");
-        Response response = new Response();
-        try
-        {
-            String accessTokenString = AuthFilter.cleanIt(accessToken);
-            response.Result = this.authFlows.getEnumMap().get(AuthorizationFlow.OAUTH).introspect(accessTokenString);
-            return new ResponseEntity(response, HttpStatus.OK);
-        }
-        catch (Exception ex) {
-            logger.error("Exception occurred : ", ex);
-            response.Success = false;
-            response.ErrorMessage = ex.getMessage();
-            return new ResponseEntity(response, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        String accessTokenString = AuthFilter.cleanIt(accessToken);
+        return respondAsync(() -> this.authFlows.getEnumMap().get(AuthorizationFlow.OAUTH).introspect(accessTokenString));
+    }
+
+    /**
+     *  Run a call that goes through the blocking CyberArk SDK on the SDK executor, off the servlet container thread,
+     *  and wrap its result in a Response like the synchronous endpoints do.
+     */
+    private CompletableFuture<ResponseEntity<JsonNode>> respondAsync(Futures.ThrowingSupplier<Object> call) {
+        return Futures.supplyAsync(call, sdkExecutor).handle((result, ex) -> {
+            Response response = new Response();
+            HttpStatus status = HttpStatus.OK;
+            if (ex != null) {
+                Throwable cause = Futures.unwrap(ex);
+                logger.error("Exception occurred : ", cause);
+                response.Success = false;
+                response.ErrorMessage = cause.getMessage();
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+            } else {
+                response.Result = result;
+            }
+            ResponseEntity<JsonNode> responseEntity = new ResponseEntity(response, status);
+            return responseEntity;
+        });
     }
 }
@@ -18,6 +18,7 @@ package com.sampleapp.controller;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.CompletableFuture;
 
 import com.sampleapp.entity.Response;
 import com.sampleapp.entity.User;
@@ -43,7 +44,7 @@ public class UserOpsController {
 	private UserOpsService userOpsService;
 
 	@PutMapping("/userops/{uuid}")
-	public ResponseEntity<JsonNode> updateUser(HttpServletRequest request, HttpServletResponse httpServletResponse, @RequestBody User user,
+	public CompletableFuture<ResponseEntity<JsonNode>> updateUser(HttpServletRequest request, HttpServletResponse httpServletResponse, @RequestBody User user,
 											   @PathVariable String uuid) throws Exception {
 		Boolean enableMFAWidgetFlow = AuthFilter.readServletCookie(request,"flow").get().equals("flow3");
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
@@ -51,61 +52,66 @@ public class UserOpsController {
 			try {
 				AuthFilter.checkHeartBeat(request, httpServletResponse, token);
 			} catch (Exception ex) {
-				return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN);
+				return CompletableFuture.completedFuture(new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN));
 			}
 			return userOpsService.updateUser(token, uuid, user, enableMFAWidgetFlow);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return sessionEnded();
 	}
 
 	@GetMapping("/userops/{uuid}")
-	public ResponseEntity<JsonNode> getUser(HttpServletRequest request, HttpServletResponse httpServletResponse, @PathVariable String uuid) throws Exception{
+	public CompletableFuture<ResponseEntity<JsonNode>> getUser(HttpServletRequest request, HttpServletResponse httpServletResponse, @PathVariable String uuid) throws Exception{
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
 		if (token != null){
 			try {
 				AuthFilter.checkHeartBeat(request, httpServletResponse, token);
 			} catch (Exception ex) {
-				return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN);
+				return CompletableFuture.completedFuture(new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN));
 			}
 			return userOpsService.getUser(uuid, token);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return sessionEnded();
 	}
 
 	@GetMapping("/userops/getTotpQR")
-	public ResponseEntity<JsonNode> getTotpQR(HttpServletRequest request, HttpServletResponse httpServletResponse) throws Exception {
+	public CompletableFuture<ResponseEntity<JsonNode>> getTotpQR(HttpServletRequest request, HttpServletResponse httpServletResponse) throws Exception {
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
 		if (token != null){
 			try {
 				AuthFilter.checkHeartBeat(request, httpServletResponse, token);
 			} catch (Exception ex) {
-				return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN);
+				return CompletableFuture.completedFuture(new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN));
 			}
 			return userOpsService.getTotpQR(token);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return sessionEnded();
 	}
 
 	@PostMapping("/userops/verifyTotp")
-	public ResponseEntity<JsonNode> verifyTotp(HttpServletRequest request, HttpServletResponse httpServletResponse, @RequestBody VerifyTotpReq req) throws Exception {
+	public CompletableFuture<ResponseEntity<JsonNode>> verifyTotp(HttpServletRequest request, HttpServletResponse httpServletResponse, @RequestBody VerifyTotpReq req) throws Exception {
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
 		if (token != null){
 			try {
 				AuthFilter.checkHeartBeat(request, httpServletResponse, token);
 			} catch (Exception ex) {
-				return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN);
+				return CompletableFuture.completedFuture(new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.FORBIDDEN));
 			}
 			return userOpsService.verifyTotp(token, req);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return sessionEnded();
 	}
 
 	@GetMapping("/userops/challengeID")
-	public ResponseEntity<JsonNode> getChallengeID(HttpServletRequest request) throws Exception {
+	public CompletableFuture<ResponseEntity<JsonNode>> getChallengeID(HttpServletRequest request) throws Exception {
 		String token = AuthFilter.findCookie(request, ".ASPXAUTH");
 		if (token != null){
 			return userOpsService.getChallengeID(token);
 		}
-		return new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN);
+		return sessionEnded();
+	}
+
+	private CompletableFuture<ResponseEntity<JsonNode>> sessionEnded() {
+		return CompletableFuture.completedFuture(
+				new ResponseEntity(new Response(false, "User Session Ended. Please login again to proceed."), HttpStatus.FORBIDDEN));
 	}
 }
@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.entity;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import java.util.Date;
+
+@Entity
+public class PendingRevocation {
+    private Integer Id;
+    private String Token;
+    private Integer Attempts;
+    private Date nextAttemptDateTime;
+    private Date claimedUntil;
+
+    public PendingRevocation() {
+    }
+
+    public PendingRevocation(String token, Date nextAttemptDateTime, Date claimedUntil) {
+        this.Token = token;
+        this.Attempts = 0;
+        this.nextAttemptDateTime = nextAttemptDateTime;
+        this.claimedUntil = claimedUntil;
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    public Integer getId() {
+        return Id;
+    }
+
+    public void setId(Integer id) {
+        this.Id = id;
+    }
+
+    /**
+     *  Token encrypted by TokenCipher.
+     */
+    @Column(length = 6000)
+    public String getToken() {
+        return Token;
+    }
+
+    public void setToken(String token) {
+        this.Token = token;
+    }
+
+    public Integer getAttempts() {
+        return Attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.Attempts = attempts;
+    }
+
+    public Date getNextAttemptDateTime() {
+        return nextAttemptDateTime;
+    }
+
+    public void setNextAttemptDateTime(Date nextAttemptDateTime) {
+        this.nextAttemptDateTime = nextAttemptDateTime;
+    }
+
+    /**
+     *  Until when an attempt in progress holds the revocation, so no other attempt picks it up meanwhile.
+     */
+    public Date getClaimedUntil() {
+        return claimedUntil;
+    }
+
+    public void setClaimedUntil(Date claimedUntil) {
+        this.claimedUntil = claimedUntil;
+    }
+}
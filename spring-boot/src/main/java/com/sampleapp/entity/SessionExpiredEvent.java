@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.entity;
+
+import org.springframework.context.ApplicationEvent;
+
+/**
+ *  Published by SessionCache when a cached session reaches the end of its inactive time,
+ *  so that it can be logged out.
+ */
+public class SessionExpiredEvent extends ApplicationEvent {
+
+    private final TokenStore tokenStore;
+
+    public SessionExpiredEvent(Object source, TokenStore tokenStore) {
+        super(source);
+        this.tokenStore = tokenStore;
+    }
+
+    public TokenStore getTokenStore() {
+        return tokenStore;
+    }
+}
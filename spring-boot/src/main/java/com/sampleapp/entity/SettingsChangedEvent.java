@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.entity;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.context.ApplicationEvent;
+
+import java.util.Objects;
+
+/**
+ *  Published by SettingsService after settings.json has been replaced,
+ *  so that anything derived from the previous settings can be dropped.
+ */
+public class SettingsChangedEvent extends ApplicationEvent {
+
+    private final JsonNode previousSettings;
+    private final JsonNode currentSettings;
+
+    public SettingsChangedEvent(Object source, JsonNode previousSettings, JsonNode currentSettings) {
+        super(source);
+        this.previousSettings = previousSettings;
+        this.currentSettings = currentSettings;
+    }
+
+    public JsonNode getPreviousSettings() {
+        return previousSettings;
+    }
+
+    public JsonNode getCurrentSettings() {
+        return currentSettings;
+    }
+
+    /**
+     *  Checks whether a single settings.json key differs between the previous and current settings.
+     *  @param key settings.json key e.g. roleName
+     *  @return true when the value was added, removed or modified
+     */
+    public boolean hasChanged(String key) {
+        JsonNode previous = previousSettings == null ? null : previousSettings.get(key);
+        JsonNode current = currentSettings == null ? null : currentSettings.get(key);
+        return !Objects.equals(previous, current);
+    }
+}
@@ -16,17 +16,30 @@
 
 package com.sampleapp.entity;
 
+import com.sampleapp.utils.TokenFingerprint;
+
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Table;
+
 import java.util.Date;
 
 @Entity
+@Table(indexes = {
+        @Index(name = "uk_token_store_session_uuid", columnList = "sessionUuid", unique = true),
+        @Index(name = "uk_token_store_mfa_token_hash", columnList = "mfaTokenHash", unique = true),
+        @Index(name = "idx_token_store_last_active_date_time", columnList = "lastActiveDateTime")
+})
 public class TokenStore {
 
     private Integer UserId;
     private String SessionUuid;
     private String MfaToken;
+    private String MfaTokenHash;
     private Date lastActiveDateTime;
 
     public TokenStore(){
@@ -63,6 +76,24 @@ public class TokenStore {
         MfaToken = mfaToken;
     }
 
+    /**
+     *  SHA-256 fingerprint of the MFA token, kept in step with it on every write. Lookups by token go through it.
+     */
+    @Column(length = 64, columnDefinition = "CHAR(64)")
+    public String getMfaTokenHash() {
+        return MfaTokenHash;
+    }
+
+    public void setMfaTokenHash(String mfaTokenHash) {
+        MfaTokenHash = mfaTokenHash;
+    }
+
+    @PrePersist
+    @PreUpdate
+    void updateMfaTokenHash() {
+        MfaTokenHash = MfaToken == null || MfaToken.isEmpty() ? null : TokenFingerprint.of(MfaToken);
+    }
+
     public Date getLastActiveDateTime() {
         return lastActiveDateTime;
     }
@@ -18,7 +18,7 @@ package com.sampleapp.entity;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sampleapp.utils.Json;
 
 public class VerifyTotpReq {
     @JsonProperty("uuid")
@@ -33,8 +33,7 @@ public class VerifyTotpReq {
 
     public String toJSONString() throws JsonProcessingException {
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            return mapper.writeValueAsString(this);
+            return Json.VERIFY_TOTP_WRITER.writeValueAsString(this);
         } catch (Exception e) {
             throw e;
         }
@@ -16,11 +16,15 @@
 
 package com.sampleapp.service;
 
-import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.List;
 import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import javax.annotation.PostConstruct;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 
@@ -29,23 +33,25 @@ import com.sampleapp.entity.AuthRequest;
 import com.sampleapp.entity.DBUser;
 import com.sampleapp.entity.TokenStore;
 import com.sampleapp.repos.MfaUserMappingRepository;
-import com.sampleapp.repos.TokenStoreRepository;
 import com.sampleapp.entity.GrantType;
 import com.sampleapp.entity.Response;
+import com.sampleapp.entity.SessionExpiredEvent;
+import com.sampleapp.utils.Futures;
+import com.sampleapp.utils.Json;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.boot.web.client.RestTemplateBuilder;
-import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import org.springframework.web.context.request.RequestAttributes;
@@ -58,7 +64,7 @@ public class AuthService {
 	private final Logger logger = LoggerFactory.getLogger(AuthService.class);
 
 	@Autowired
-	private TokenStoreRepository tokenStoreRepository;
+	private SessionCache sessionCache;
 	
 	@Autowired
 	private MfaUserMappingRepository mfaUserMappingRepository;
@@ -69,8 +75,26 @@ public class AuthService {
 	@Autowired
 	private SettingsService settingsService;
 
-	@LoadBalanced
-	private final RestTemplate restTemplate;
+	@Autowired
+	private TenantGateway tenantGateway;
+
+	@Autowired
+	private OobPollMultiplexer oobPollMultiplexer;
+
+	@Autowired
+	@Qualifier("tenantExecutor")
+	private Executor tenantExecutor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	// Times StartAuthentication is restarted after ending a session the tenant still held for the user
+	@Value("${staleSession.maxRestarts:2}")
+	private int maxStaleSessionRestarts;
+
+	private Counter staleSessionRestarts;
+
+	private Counter staleSessionRestartsExhausted;
 
 	@Value("${demoAppBaseUrl}")
 	public String demoAppBaseUrl;
@@ -78,8 +102,16 @@ public class AuthService {
 	@Value("${backendServerPort}")
 	public String backendServerPort;
 
-	public AuthService(RestTemplateBuilder builder) {
-		this.restTemplate = builder.build();
+	@PostConstruct
+	void initMetrics() {
+		staleSessionRestarts = Counter.builder("auth.stale.session.restarts")
+				.description("StartAuthentication restarts after logging out a stale tenant session")
+				.tag("outcome", "restarted")
+				.register(meterRegistry);
+		staleSessionRestartsExhausted = Counter.builder("auth.stale.session.restarts")
+				.description("StartAuthentication restarts after logging out a stale tenant session")
+				.tag("outcome", "exhausted")
+				.register(meterRegistry);
 	}
 
 	private HttpHeaders setHeaders() {
@@ -90,65 +122,84 @@ public class AuthService {
 		return httpHeaders;
 	}
 
-	public ResponseEntity<JsonNode> startAuthenticationWithObject(AuthRequest authRequest, HttpServletResponse response, Boolean enableMFAWidgetFlow)
+	public CompletableFuture<ResponseEntity<JsonNode>> startAuthenticationWithObject(AuthRequest authRequest, HttpServletResponse response, Boolean enableMFAWidgetFlow)
 			throws JsonProcessingException {
 		String tenant = settingsService.getTenantURL() + "/Security/StartAuthentication";
 		HttpHeaders httpHeaders = setHeaders();
-		ObjectMapper mapper = new ObjectMapper();
-		String beginAuth = mapper.writeValueAsString(authRequest);
+		String beginAuth = Json.AUTH_REQUEST_WRITER.writeValueAsString(authRequest);
 		HttpEntity<String> request = new HttpEntity<>(beginAuth, httpHeaders);
-		boolean success = false;
-		ResponseEntity<JsonNode> responseObj = null;
-		do {
-			ResponseEntity<JsonNode> idaptiveResponse = restTemplate.exchange(tenant, HttpMethod.POST, request,
-					JsonNode.class);
+		return startAuthentication(tenant, request, response, enableMFAWidgetFlow, getUserTokenStore(enableMFAWidgetFlow), 0);
+	}
+
+	// Starts authentication. When the tenant still holds a session for the user, that session is logged out without
+	// blocking the request thread and authentication restarts, at most maxStaleSessionRestarts times.
+	private CompletableFuture<ResponseEntity<JsonNode>> startAuthentication(String tenant, HttpEntity<String> request,
+			HttpServletResponse response, Boolean enableMFAWidgetFlow, TokenStore tokenStore, int restarts) {
+		return tenantGateway.exchange(tenant, HttpMethod.POST, request).thenCompose(idaptiveResponse -> {
 			HttpHeaders responseHeaders = new HttpHeaders();
 			responseHeaders.set("content-type", "application/json");
 			JsonNode result = idaptiveResponse.getBody();
-			if (result.get("success").asBoolean()) {
-				String auth = result.get("Result").has("Auth") ? result.get("Result").get("Auth").asText() : "";
-				if (auth.length() == 0) {
-					success = true;
-					responseObj = new ResponseEntity<>(idaptiveResponse.getBody(), responseHeaders, HttpStatus.OK);
-				} else {
-					logout(auth, response, enableMFAWidgetFlow);
-				}
-			} else {
-				success = true;
-				responseObj = new ResponseEntity<>(idaptiveResponse.getBody(), responseHeaders, HttpStatus.BAD_REQUEST);
+			if (!result.get("success").asBoolean()) {
+				return CompletableFuture.completedFuture(new ResponseEntity<>(result, responseHeaders, HttpStatus.BAD_REQUEST));
+			}
+			String auth = result.get("Result").has("Auth") ? result.get("Result").get("Auth").asText() : "";
+			if (auth.length() == 0) {
+				return CompletableFuture.completedFuture(new ResponseEntity<>(result, responseHeaders, HttpStatus.OK));
 			}
-		} while (!success);
-		return responseObj;
+			if (restarts >= maxStaleSessionRestarts) {
+				staleSessionRestartsExhausted.increment();
+				logger.warn("Tenant session still active after {} restarts of StartAuthentication, giving up", restarts);
+				ResponseEntity<JsonNode> conflict = new ResponseEntity(
+						new Response(false, "An existing session could not be ended. Please try again."), HttpStatus.CONFLICT);
+				return CompletableFuture.completedFuture(conflict);
+			}
+			staleSessionRestarts.increment();
+			return logout(auth, response, enableMFAWidgetFlow, tokenStore)
+					.thenCompose(logoutResult -> startAuthentication(tenant, request, response, enableMFAWidgetFlow, tokenStore, restarts + 1));
+		});
 	}
 
-	public ResponseEntity<JsonNode> advanceAuthenticationByObject(JsonNode authRequest, HttpServletResponse response) throws UnsupportedEncodingException {
-		try {
-			String url = settingsService.getTenantURL() + "/Security/AdvanceAuthentication";
-			HttpHeaders httpHeaders = setHeaders();
-			HttpEntity<JsonNode> request = new HttpEntity<>(authRequest, httpHeaders);
-			ResponseEntity<JsonNode> advAuthResp = restTemplate.exchange(url, HttpMethod.POST, request, JsonNode.class);
-			JsonNode advAuthBody = advAuthResp.getBody();
+	// The tenant body is passed through as received; only Result.UserId is looked at, with a streaming parser.
+	// Polls of out-of-band challenges are held and shared by the OobPollMultiplexer.
+	public CompletableFuture<ResponseEntity<?>> advanceAuthenticationByObject(JsonNode authRequest, HttpServletResponse response) {
+		String url = settingsService.getTenantURL() + "/Security/AdvanceAuthentication";
+		HttpHeaders httpHeaders = setHeaders();
+		CompletableFuture<ResponseEntity<byte[]>> advAuth = OobPollMultiplexer.isPoll(authRequest)
+				? oobPollMultiplexer.poll(url, httpHeaders, authRequest)
+				: tenantGateway.exchangeForBytes(url, HttpMethod.POST, new HttpEntity<>(authRequest, httpHeaders));
+		CompletableFuture<ResponseEntity<?>> result = advAuth.thenApply(Futures.unchecked(advAuthResp -> {
+			byte[] advAuthBody = advAuthResp.getBody();
 			HttpHeaders advAuthHeader = advAuthResp.getHeaders();
-			if (advAuthResp.getBody().get("Result").has("UserId")) {
-				String token = null;
-				for (String value : advAuthHeader.get("Set-Cookie")) {
-					if (value.split(";")[0].split("=")[0].equals(".ASPXAUTH")) {
-						token = value.split(";")[0].split("=")[1];
-
-						Cookie authCookie = new Cookie("AUTH", URLEncoder.encode(token, "UTF-8"));
+			if (Json.findResultField(advAuthBody, "UserId") == null) {
+				ResponseEntity<?> pending = new ResponseEntity<>(advAuthBody, setHeaders(), HttpStatus.OK);
+				return pending;
+			}
+			HttpHeaders responseHeaders = new HttpHeaders();
+			responseHeaders.setContentType(MediaType.APPLICATION_JSON);
+			List<String> setCookies = advAuthHeader.get(HttpHeaders.SET_COOKIE);
+			if (setCookies != null) {
+				responseHeaders.put(HttpHeaders.SET_COOKIE, setCookies);
+				for (String value : setCookies) {
+					String cookie = value.split(";")[0];
+					int separator = cookie.indexOf('=');
+					if (separator > 0 && cookie.substring(0, separator).equals(".ASPXAUTH")) {
+						Cookie authCookie = new Cookie("AUTH", URLEncoder.encode(cookie.substring(separator + 1), "UTF-8"));
 						authCookie.setSecure(true);
 						authCookie.setPath("/");
 						response.addCookie(authCookie);
 					}
 				}
-				return new ResponseEntity<JsonNode>(advAuthBody, advAuthHeader, HttpStatus.OK);
-			} else {
-				return new ResponseEntity<JsonNode>(advAuthBody, setHeaders(), HttpStatus.OK);
 			}
-		} catch (Exception ex){
-			logger.error("Exception occurred : ", ex);
-			return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+			ResponseEntity<?> authenticated = new ResponseEntity<>(advAuthBody, responseHeaders, HttpStatus.OK);
+			return authenticated;
+		})).exceptionally(this::internalServerError);
+		// A browser that stops waiting no longer holds a seat in the out-of-band poll loop
+		result.whenComplete((advAuthResp, ex) -> {
+			if (result.isCancelled()) {
+				advAuth.cancel(false);
+			}
+		});
+		return result;
 	}
 
 	private HttpHeaders setHeaders(String token) {
@@ -160,185 +211,216 @@ public class AuthService {
 		return httpHeaders;
 	}
 
-	public ResponseEntity<JsonNode> logout(String authToken, HttpServletResponse respose, Boolean enableMFAWidgetFlow) {
+	public CompletableFuture<ResponseEntity<JsonNode>> logout(String authToken, HttpServletResponse respose, Boolean enableMFAWidgetFlow) {
 		try {
-			String tenant = settingsService.getTenantURL() + "/Security/Logout";
-			HttpHeaders headers = setHeaders();
-			headers.set("Authorization", "Bearer " + authToken);
-			HttpEntity<String> request = new HttpEntity<>(headers);
-			Cookie cookie = new Cookie(".ASPXAUTH", null);
-			cookie.setPath("/");
-			cookie.setHttpOnly(true);
-			cookie.setMaxAge(0);
-			respose.addCookie(cookie);
-			Cookie authCookie = new Cookie("AUTH", null);
-			authCookie.setPath("/");
-			authCookie.setMaxAge(0);
-			respose.addCookie(authCookie);
-			ResponseEntity<JsonNode> result = this.restTemplate.exchange(tenant, HttpMethod.POST, request, JsonNode.class);
-			if (enableMFAWidgetFlow) {
-				TokenStore tokenStore = ((TokenStore) RequestContextHolder.currentRequestAttributes().getAttribute("UserTokenStore", RequestAttributes.SCOPE_REQUEST));
-				if (tokenStore == null) {
-					return result;
-				}
-				Integer userId = tokenStore.getUserId();
-				tokenStoreRepository.deleteById(userId);
+			return logout(authToken, respose, enableMFAWidgetFlow, getUserTokenStore(enableMFAWidgetFlow));
+		} catch (Exception ex) {
+			return CompletableFuture.completedFuture(internalServerError(ex));
+		}
+	}
+
+	private CompletableFuture<ResponseEntity<JsonNode>> logout(String authToken, HttpServletResponse respose, Boolean enableMFAWidgetFlow,
+			TokenStore tokenStore) {
+		Cookie cookie = new Cookie(".ASPXAUTH", null);
+		cookie.setPath("/");
+		cookie.setHttpOnly(true);
+		cookie.setMaxAge(0);
+		respose.addCookie(cookie);
+		Cookie authCookie = new Cookie("AUTH", null);
+		authCookie.setPath("/");
+		authCookie.setMaxAge(0);
+		respose.addCookie(authCookie);
+		return logoutTenantSession(authToken).thenApplyAsync(result -> {
+			if (enableMFAWidgetFlow && tokenStore != null) {
+				sessionCache.delete(tokenStore.getUserId());
 			}
 			return result;
-		} catch (Exception ex){
-			logger.error("Exception occurred : ", ex);
-			return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+		}, tenantExecutor).exceptionally(this::internalServerError);
+	}
+
+	/**
+	 *  End the tenant session of an MFA token, without touching cookies or the session table.
+	 *  @param authToken MFA access token
+	 *  @return tenant response
+	 */
+	public CompletableFuture<ResponseEntity<JsonNode>> logoutTenantSession(String authToken) {
+		String tenant = settingsService.getTenantURL() + "/Security/Logout";
+		HttpHeaders headers = setHeaders();
+		headers.set("Authorization", "Bearer " + authToken);
+		HttpEntity<String> request = new HttpEntity<>(headers);
+		return tenantGateway.exchange(tenant, HttpMethod.POST, request);
+	}
+
+	// The token store the AuthFilter attached to the request; read before any async hop, where the request context is gone.
+	private TokenStore getUserTokenStore(Boolean enableMFAWidgetFlow) {
+		if (!enableMFAWidgetFlow) {
+			return null;
 		}
+		return (TokenStore) RequestContextHolder.currentRequestAttributes().getAttribute("UserTokenStore", RequestAttributes.SCOPE_REQUEST);
+	}
+
+	private ResponseEntity<JsonNode> internalServerError(Throwable ex) {
+		Throwable cause = Futures.unwrap(ex);
+		logger.error("Exception occurred : ", cause);
+		return new ResponseEntity(new Response(false, cause.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
 	}
 
 	public String CreateSession(Integer userId, String mfaToken) throws Exception {
 		String sessionUuid = java.util.UUID.randomUUID().toString();
-		tokenStoreRepository.save(new TokenStore(userId, sessionUuid, mfaToken, getCurrentUtcTime()));
+		sessionCache.save(new TokenStore(userId, sessionUuid, mfaToken, getCurrentUtcTime()));
 		return sessionUuid;
 	}
 
 	public TokenStore GetTokenStore(String auth){
-		return tokenStoreRepository.findByToken(auth);
+		return sessionCache.findByToken(auth);
 	}
 
-	public JsonNode CompleteLogin(AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse) throws Exception {
+	public CompletableFuture<JsonNode> CompleteLogin(AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse) {
+		return receiveOAuthTokenCCForUser(advanceLoginRequest).thenCompose(accessToken -> getMfaUserName(accessToken)
+				.thenApplyAsync(Futures.unchecked(mfaUser -> {
+					TokenStore token = sessionCache.findBySession(advanceLoginRequest.getSessionUuid());
+					DBUser dbuser = userService.Get(token.getUserId());
 
-		String accessToken = receiveOAuthTokenCCForUser(advanceLoginRequest);
+					this.heartBeat(token.getSessionUuid(), httpServletResponse);
 
-		HttpHeaders headers = setHeaders(accessToken);
-		HttpEntity<String> request = new HttpEntity<>(headers);
-
-		String url = settingsService.getTenantURL() + "/CDirectoryService/GetUser";
-		ResponseEntity<JsonNode> getResponse = restTemplate.exchange(url, HttpMethod.GET, request, JsonNode.class);
-		JsonNode response = getResponse.getBody();
-		String mfaUser = response.get("Result").get("Name").asText();
-
-		TokenStore token =  tokenStoreRepository.findBySession(advanceLoginRequest.getSessionUuid());
-		DBUser dbuser = userService.Get(token.getUserId());
+					if (dbuser.getName().equalsIgnoreCase(mfaUser)) {
 
-		this.heartBeat(token.getSessionUuid(), httpServletResponse);
+						token.setMfaToken(accessToken);
+						sessionCache.save(token);
+						ObjectNode objectNode = Json.createObjectNode();
+						objectNode.put("Username", dbuser.getName());
+						objectNode.put("DisplayName", dbuser.getDisplayName());
 
-		if(dbuser.getName().equalsIgnoreCase(mfaUser)){
+						Cookie cookie = new Cookie(".ASPXAUTH", accessToken);
+						cookie.setHttpOnly(true);
+						cookie.setSecure(true);
+						cookie.setPath("/");
+						httpServletResponse.addCookie(cookie);
+						return objectNode;
 
-			token.setMfaToken(accessToken);
-			tokenStoreRepository.save(token);
-			ObjectNode objectNode = new ObjectMapper().createObjectNode();
-			objectNode.put("Username",dbuser.getName());
-			objectNode.put("DisplayName",dbuser.getDisplayName());
+					} else {
+						throw new Exception("Invalid Tokens.Login Failed");
+					}
+				}), tenantExecutor));
+	}
 
-			Cookie cookie = new Cookie(".ASPXAUTH", accessToken);
-			cookie.setHttpOnly(true);
-			cookie.setSecure(true);
-			cookie.setPath("/");
-			httpServletResponse.addCookie(cookie);
-			return objectNode;
+	private CompletableFuture<String> getMfaUserName(String accessToken) {
+		HttpHeaders headers = setHeaders(accessToken);
+		HttpEntity<String> request = new HttpEntity<>(headers);
 
-		} else{
-			throw new Exception("Invalid Tokens.Login Failed");
-		}
+		String url = settingsService.getTenantURL() + "/CDirectoryService/GetUser";
+		return tenantGateway.exchange(url, HttpMethod.GET, request)
+				.thenApply(getResponse -> getResponse.getBody().get("Result").get("Name").asText());
 	}
 
-	private String receiveOAuthTokenCCForUser(AdvanceLoginRequest advanceLoginRequest) {
-		try {
-			String url = settingsService.getTenantURL() + "/oauth2/token/" + settingsService.getOauthApplicationID();
-			HttpHeaders httpHeaders = new HttpHeaders();
-			httpHeaders.set("Content-Type", "application/x-www-form-urlencoded");
-
-			MultiValueMap<String, String> map = new LinkedMultiValueMap<>();
-			map.add("code", advanceLoginRequest.getAuthorizationCode());
-			map.add("grant_type", GrantType.authorization_code.name());
-			map.add("redirect_uri", this.demoAppBaseUrl + ":" + this.backendServerPort + "/api/RedirectResource");
-			map.add("client_id", advanceLoginRequest.getClientId());
-			map.add("code_verifier", advanceLoginRequest.getCodeVerifier());
-
-			HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, httpHeaders);
-			ResponseEntity<JsonNode> response = restTemplate.exchange(url, HttpMethod.POST, request, JsonNode.class);
+	private CompletableFuture<String> receiveOAuthTokenCCForUser(AdvanceLoginRequest advanceLoginRequest) {
+		String url = settingsService.getTenantURL() + "/oauth2/token/" + settingsService.getOauthApplicationID();
+		HttpHeaders httpHeaders = new HttpHeaders();
+		httpHeaders.set("Content-Type", "application/x-www-form-urlencoded");
+
+		MultiValueMap<String, String> map = new LinkedMultiValueMap<>();
+		map.add("code", advanceLoginRequest.getAuthorizationCode());
+		map.add("grant_type", GrantType.authorization_code.name());
+		map.add("redirect_uri", this.demoAppBaseUrl + ":" + this.backendServerPort + "/api/RedirectResource");
+		map.add("client_id", advanceLoginRequest.getClientId());
+		map.add("code_verifier", advanceLoginRequest.getCodeVerifier());
+
+		HttpEntity<MultiValueMap<String, String>> request = new HttpEntity<>(map, httpHeaders);
+		return tenantGateway.exchange(url, HttpMethod.POST, request).handle((response, ex) -> {
+			if (ex != null) {
+				logger.error("Exception occurred : ", Futures.unwrap(ex));
+				throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+			}
 			JsonNode responseResult = response.getBody();
 			return responseResult.get("access_token").asText();
+		});
+	}
 
-		} catch (Exception ex){
-			logger.error("Exception occurred : ", ex);
-			throw ex;
-		}
-    }
-
-	public JsonNode setAuthCookie(Boolean enableMFAWidgetFlow, AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse) throws Exception {
-		try {
-			String accessToken = receiveOAuthTokenCCForUser(advanceLoginRequest);
+	public CompletableFuture<JsonNode> setAuthCookie(Boolean enableMFAWidgetFlow, AdvanceLoginRequest advanceLoginRequest, HttpServletResponse httpServletResponse) {
+		return receiveOAuthTokenCCForUser(advanceLoginRequest).thenComposeAsync(Futures.unchecked(accessToken -> {
 			String sessionUuid = "";
-			if(enableMFAWidgetFlow){
+			if (enableMFAWidgetFlow) {
 				Integer userId = mfaUserMappingRepository.findByMfaUserId(advanceLoginRequest.getClientId()).getUserId();
 				sessionUuid = CreateSession(userId, accessToken);
 			}
-
-			HttpHeaders headers = setHeaders(accessToken);
-			HttpEntity<String> request = new HttpEntity<>(headers);
-
-			String url = settingsService.getTenantURL() + "/CDirectoryService/GetUser";
-			ResponseEntity<JsonNode> getResponse = restTemplate.exchange(url, HttpMethod.GET, request, JsonNode.class);
-			JsonNode response = getResponse.getBody();
-			String mfaUsername = response.get("Result").get("Name").asText();
-
-			Cookie cookie = new Cookie(".ASPXAUTH", accessToken);
-			cookie.setHttpOnly(true);
-			cookie.setSecure(true);
-			cookie.setPath("/");
-			httpServletResponse.addCookie(cookie);
-
-			ObjectNode objectNode = new ObjectMapper().createObjectNode();
-			objectNode.put("mfaUsername", mfaUsername);
-			objectNode.put("SessionUuid", sessionUuid);
-			return objectNode;
-		} catch (Exception e) {
-			logger.error("Exception occurred : ", e);
-			throw e;
-		}
+			String createdSessionUuid = sessionUuid;
+			return getMfaUserName(accessToken).thenApply(mfaUsername -> {
+				Cookie cookie = new Cookie(".ASPXAUTH", accessToken);
+				cookie.setHttpOnly(true);
+				cookie.setSecure(true);
+				cookie.setPath("/");
+				httpServletResponse.addCookie(cookie);
+
+				ObjectNode objectNode = Json.createObjectNode();
+				objectNode.put("mfaUsername", mfaUsername);
+				objectNode.put("SessionUuid", createdSessionUuid);
+				return (JsonNode) objectNode;
+			});
+		}), tenantExecutor).whenComplete((result, ex) -> {
+			if (ex != null) {
+				logger.error("Exception occurred : ", Futures.unwrap(ex));
+			}
+		});
 	}
 
-	public ResponseEntity<JsonNode> startChallenge(String token, AuthRequest authRequest) {
+	public CompletableFuture<ResponseEntity<JsonNode>> startChallenge(String token, AuthRequest authRequest) {
 		try {
 			String url = settingsService.getTenantURL() + "/Security/StartChallenge";
 
-			String req = new ObjectMapper().writeValueAsString(authRequest);
+			String req = Json.AUTH_REQUEST_WRITER.writeValueAsString(authRequest);
 			HttpEntity<String> request = new HttpEntity<>(req, setHeaders(token));
-			JsonNode challengeResponse = restTemplate.exchange(url, HttpMethod.POST, request, JsonNode.class).getBody();
-
-			if (challengeResponse.get("success").asBoolean()) {
-				return new ResponseEntity<>(challengeResponse, HttpStatus.OK);
-			} else {
-				return new ResponseEntity<>(challengeResponse, HttpStatus.BAD_REQUEST);
-			}
-		} catch (Exception ex){
-			logger.error("Exception occurred : ", ex);
-			return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+			return tenantGateway.exchange(url, HttpMethod.POST, request).thenApply(response -> {
+				JsonNode challengeResponse = response.getBody();
+				if (challengeResponse.get("success").asBoolean()) {
+					return new ResponseEntity<>(challengeResponse, HttpStatus.OK);
+				} else {
+					return new ResponseEntity<>(challengeResponse, HttpStatus.BAD_REQUEST);
+				}
+			}).exceptionally(this::internalServerError);
+		} catch (Exception ex) {
+			return CompletableFuture.completedFuture(internalServerError(ex));
 		}
 	}
 
-	public void logoutSession(String sessionUuid, HttpServletResponse servletResponse) throws Exception {
-		try {
-			TokenStore tokenStore = tokenStoreRepository.findBySession(sessionUuid);
-			if (tokenStore == null ) {
-				return;
-			}
-			if (tokenStore.getMfaToken() != null && !tokenStore.getMfaToken().isEmpty()) {
-				this.logout(tokenStore.getMfaToken(), servletResponse, false);
-			}
-			tokenStoreRepository.deleteById(tokenStore.getUserId());
-		} catch (Exception ex){
-			logger.error("Exception occurred : ", ex);
-			throw ex;
+	public CompletableFuture<Void> logoutSession(String sessionUuid, HttpServletResponse servletResponse) {
+		TokenStore tokenStore = sessionCache.findBySession(sessionUuid);
+		if (tokenStore == null) {
+			return CompletableFuture.completedFuture(null);
 		}
+		CompletableFuture<ResponseEntity<JsonNode>> logout = CompletableFuture.completedFuture(null);
+		if (tokenStore.getMfaToken() != null && !tokenStore.getMfaToken().isEmpty()) {
+			logout = this.logout(tokenStore.getMfaToken(), servletResponse, false, null);
+		}
+		return logout.thenAcceptAsync(result -> sessionCache.delete(tokenStore.getUserId()), tenantExecutor)
+				.whenComplete((result, ex) -> {
+					if (ex != null) {
+						logger.error("Exception occurred : ", Futures.unwrap(ex));
+					}
+				});
 	}
 
-	public void updateLastActiveDateTime(String sessionUuid) throws Exception {
-		TokenStore token =  tokenStoreRepository.findBySession(sessionUuid);
-		token.setLastActiveDateTime(this.getCurrentUtcTime());
-		tokenStoreRepository.save(token);
+	/**
+	 *  Log out a session that expired in the SessionCache, ending its tenant session first when it holds an MFA token.
+	 *  @param event expired session
+	 */
+	@EventListener
+	public void onSessionExpired(SessionExpiredEvent event) {
+		TokenStore tokenStore = event.getTokenStore();
+		CompletableFuture<ResponseEntity<JsonNode>> logout = CompletableFuture.completedFuture(null);
+		if (tokenStore.getMfaToken() != null && !tokenStore.getMfaToken().isEmpty()) {
+			logout = this.logoutTenantSession(tokenStore.getMfaToken());
+		}
+		logout.thenAcceptAsync(result -> sessionCache.deleteExpired(tokenStore), tenantExecutor)
+				.whenComplete((result, ex) -> {
+					if (ex != null) {
+						logger.error("Exception occurred : ", Futures.unwrap(ex));
+					}
+				});
 	}
 
 	public boolean isSessionActive(String sessionUuid) {
 		try {
-			TokenStore token =  tokenStoreRepository.findBySession(sessionUuid);
+			TokenStore token =  sessionCache.findBySession(sessionUuid);
 			Date lastActiveDateTime = token.getLastActiveDateTime();
 			Date currentDateTime = this.getCurrentUtcTime();
 
@@ -367,9 +449,8 @@ public class AuthService {
 	}
 
 	public void heartBeat(String sessionUuid, HttpServletResponse response) throws Exception {
-		if (this.isSessionActive(sessionUuid)) {
-			this.updateLastActiveDateTime(sessionUuid);
-		} else {
+		// Checks expiry and extends the session in one step
+		if (!sessionCache.extend(sessionUuid, getCurrentUtcTime(), settingsService.getSessionInactiveTimeInSec())) {
 			this.logoutSession(sessionUuid, response);
 			throw new Exception("User Session Ended. Please login again to proceed.");
 		}
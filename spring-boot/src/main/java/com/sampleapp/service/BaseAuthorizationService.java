@@ -27,18 +27,22 @@ import com.sampleapp.entity.PKCEMetaData;
 import com.sampleapp.entity.TokenMetadataRequest;
 import com.sampleapp.entity.TokenRequestPreview;
 import com.sampleapp.entity.OIDCTokens;
+import com.sampleapp.utils.SingleFlight;
 import com.cyberark.requestBuilders.TokenRequest;
-import com.cyberark.utils.PKCEUtil;
 import com.fasterxml.jackson.databind.JsonNode;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.Objects;
 
 @Service
 public abstract class BaseAuthorizationService<T extends OAuthClient> {
@@ -56,6 +60,17 @@ public abstract class BaseAuthorizationService<T extends OAuthClient> {
     @Autowired
     SettingsService settingsService;
 
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    PkcePool pkcePool;
+
+    /**
+     *  Token endpoint requests in flight, so that concurrent callers for the same client share one request.
+     */
+    protected SingleFlight<TokenEndpointKey, TokenHolder> tokenRequests;
+
     public abstract AuthorizationFlow supportedAuthorizationFlow();
 
     public abstract T getClient(String clientId, char[] clientSecret) throws IOException;
@@ -86,6 +101,13 @@ public abstract class BaseAuthorizationService<T extends OAuthClient> {
 
     public BaseAuthorizationService() { }
 
+    @PostConstruct
+    void initTokenRequests() {
+        // Tagged by flow only: the metrics are public, and tenant URL, application and client ID would identify the setup
+        Tags tags = Tags.of("authFlow", supportedAuthorizationFlow().name());
+        this.tokenRequests = new SingleFlight<>(meterRegistry, "tenant.token.requests", key -> tags);
+    }
+
     /**
      *  Builds the /authorize URL using OAuthClient
      *  @param metadataRequest Request Metadata
@@ -156,15 +178,12 @@ public abstract class BaseAuthorizationService<T extends OAuthClient> {
     }
 
     /**
-     *  Get PKCEMetaData which holds PKCEMetaData and CodeChallenge using OAuthClient
+     *  Get PKCEMetaData which holds PKCEMetaData and CodeChallenge from the pre-generated pool
      *  @return PKCEMetaData An Object that holds PKCEMetaData and CodeChallenge
      */
     public PKCEMetaData getPKCEMetaData() throws Exception {
         try {
-            PKCEMetaData pkceMetaData = new PKCEMetaData();
-            pkceMetaData.codeVerifier = PKCEUtil.generateCodeVerifier();
-            pkceMetaData.codeChallenge = PKCEUtil.generateCodeChallenge(pkceMetaData.codeVerifier);
-            return pkceMetaData;
+            return pkcePool.take();
         }
         catch (NoSuchAlgorithmException ex){
             logger.error("Exception occurred at getPKCEMetaData() : ", ex);
@@ -239,4 +258,35 @@ public abstract class BaseAuthorizationService<T extends OAuthClient> {
             throw ex;
         }
     }
+
+    /**
+     *  Identifies token endpoint requests that may share one response: same tenant, application, client and scope.
+     */
+    protected static final class TokenEndpointKey {
+        private final String tenantUrl;
+        private final String appId;
+        private final String clientId;
+        private final String scope;
+
+        protected TokenEndpointKey(String tenantUrl, String appId, String clientId, String scope) {
+            this.tenantUrl = tenantUrl;
+            this.appId = appId;
+            this.clientId = clientId;
+            this.scope = scope;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TokenEndpointKey)) return false;
+            TokenEndpointKey that = (TokenEndpointKey) o;
+            return Objects.equals(tenantUrl, that.tenantUrl) && Objects.equals(appId, that.appId)
+                    && Objects.equals(clientId, that.clientId) && Objects.equals(scope, that.scope);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tenantUrl, appId, clientId, scope);
+        }
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.cyberark.entities.TokenHolder;
+import com.sampleapp.entity.AuthFlows;
+import com.sampleapp.entity.AuthorizationFlow;
+import com.sampleapp.entity.GrantType;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.entity.TokenMetadataRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Holds the client_credentials access token of the OAuth service user and reuses it until shortly before expires_in.
+ *  The token is refreshed in the background ahead of expiry and dropped whenever settings.json changes.
+ */
+@Service
+public class ClientCredentialsTokenManager {
+
+    private final Logger logger = LoggerFactory.getLogger(ClientCredentialsTokenManager.class);
+
+    @Autowired
+    private AuthFlows authFlows;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Value("${clientCredentialsToken.refreshBeforeExpiryInSec:60}")
+    private long refreshBeforeExpiryInSec;
+
+    @Value("${clientCredentialsToken.minRemainingLifetimeInSec:10}")
+    private long minRemainingLifetimeInSec;
+
+    @Value("${clientCredentialsToken.retryIntervalInSec:5}")
+    private long retryIntervalInSec;
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    // Incremented on every invalidation so that a fetch started with stale settings is never cached.
+    private final AtomicLong generation = new AtomicLong();
+
+    private volatile CachedToken cachedToken;
+
+    private volatile ScheduledFuture<?> scheduledRefresh;
+
+    /**
+     *  Get the cached access token, fetching a new one from the tenant when none is usable.
+     *  @return access_token of the OAuth service user
+     *  @throws IOException when the token endpoint call fails
+     */
+    public String getAccessToken() throws IOException {
+        CachedToken token = cachedToken;
+        if (token != null && token.isUsable()) {
+            return token.accessToken;
+        }
+        refreshLock.lock();
+        try {
+            token = cachedToken;
+            if (token != null && token.isUsable()) {
+                return token.accessToken;
+            }
+            return refresh().accessToken;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    /**
+     *  Drop the cached token and any pending background refresh.
+     */
+    public void invalidate() {
+        refreshLock.lock();
+        try {
+            generation.incrementAndGet();
+            cachedToken = null;
+            cancelScheduledRefresh();
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        logger.info("Settings changed, invalidating client credentials token");
+        invalidate();
+    }
+
+    private CachedToken refresh() throws IOException {
+        long fetchGeneration = generation.get();
+
+        TokenMetadataRequest metadataRequest = new TokenMetadataRequest();
+        metadataRequest.grantType = GrantType.client_credentials;
+        TokenHolder tokenHolder = this.authFlows.getEnumMap().get(AuthorizationFlow.OAUTH)
+                .getTokenSetWithClientCreds(metadataRequest);
+
+        long expiresAt = System.currentTimeMillis() + tokenHolder.getExpiresIn() * 1000;
+        CachedToken token = new CachedToken(tokenHolder.getAccessToken(), expiresAt, minRemainingLifetimeInSec * 1000);
+
+        if (tokenHolder.getExpiresIn() > 0 && generation.get() == fetchGeneration) {
+            cachedToken = token;
+            scheduleRefresh(token.expiresAt - refreshLeadInMillis(tokenHolder.getExpiresIn()));
+        }
+        return token;
+    }
+
+    // Short-lived tokens are refreshed at half-life instead of a fixed lead time.
+    private long refreshLeadInMillis(long expiresInSec) {
+        return Math.min(refreshBeforeExpiryInSec, expiresInSec / 2) * 1000;
+    }
+
+    private void scheduleRefresh(long refreshAt) {
+        cancelScheduledRefresh();
+        scheduledRefresh = taskScheduler.schedule(this::backgroundRefresh, new Date(refreshAt));
+    }
+
+    private void cancelScheduledRefresh() {
+        ScheduledFuture<?> pending = scheduledRefresh;
+        if (pending != null) {
+            pending.cancel(false);
+            scheduledRefresh = null;
+        }
+    }
+
+    private void backgroundRefresh() {
+        refreshLock.lock();
+        try {
+            refresh();
+        } catch (Exception ex) {
+            // The current token stays in use until it is no longer usable; keep trying until then.
+            logger.error("Exception at backgroundRefresh() : ", ex);
+            CachedToken token = cachedToken;
+            if (token != null && token.isUsable()) {
+                scheduleRefresh(System.currentTimeMillis() + retryIntervalInSec * 1000);
+            }
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    private static class CachedToken {
+        private final String accessToken;
+        private final long expiresAt;
+        private final long usableUntil;
+
+        private CachedToken(String accessToken, long expiresAt, long minRemainingLifetime) {
+            this.accessToken = accessToken;
+            this.expiresAt = expiresAt;
+            this.usableUntil = expiresAt - minRemainingLifetime;
+        }
+
+        private boolean isUsable() {
+            return System.currentTimeMillis() < usableUntil;
+        }
+    }
+}
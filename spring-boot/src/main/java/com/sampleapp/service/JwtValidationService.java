@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.utils.Json;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Validates JWT access tokens in-process against the tenant's JSON Web Key Set (JWKS), instead of a remote introspection call.
+ *  The key set is cached and fetched again when it gets old or when a token is signed with a key ID (kid) it does not hold.
+ *  Only tokens signed with an allowed algorithm and carrying an expiry are accepted.
+ */
+@Service
+public class JwtValidationService {
+
+    private static final String ACTIVE = "active";
+
+    private final Logger logger = LoggerFactory.getLogger(JwtValidationService.class);
+
+    @Autowired
+    private SettingsService settingsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("tenantHttpClient")
+    private OkHttpClient httpClient;
+
+    @Value("${jwtValidation.enabled:true}")
+    private boolean enabled;
+
+    @Value("${jwtValidation.issuer:}")
+    private String configuredIssuer;
+
+    // Comma separated, defaults to the OAuth application ID
+    @Value("${jwtValidation.audiences:}")
+    private String configuredAudiences;
+
+    // Comma separated JWS algorithm names
+    @Value("${jwtValidation.allowedAlgorithms:RS256}")
+    private String[] allowedAlgorithms;
+
+    @Value("${jwtValidation.clockSkewInSec:60}")
+    private long clockSkewInSec;
+
+    @Value("${jwtValidation.jwksTtlInSec:3600}")
+    private long jwksTtlInSec;
+
+    @Value("${jwtValidation.jwksMinRefetchIntervalInSec:30}")
+    private long jwksMinRefetchIntervalInSec;
+
+    private final ReentrantLock jwksLock = new ReentrantLock();
+
+    private volatile CachedKeySet cachedKeySet;
+
+    /**
+     *  Validate a JWT access token issued by the OAuth application.
+     *  @param token access token
+     *  @param appId OAuth application ID the token is issued for
+     *  @return introspection style result with "active" and the token claims,
+     *          or null when the token cannot be validated locally (opaque token or unknown kid)
+     */
+    public JsonNode validate(String token, String appId) {
+        if (!enabled) {
+            return null;
+        }
+        SignedJWT jwt;
+        try {
+            jwt = SignedJWT.parse(token);
+        } catch (ParseException ex) {
+            meterRegistry.counter("tenant.jwt.validations", "outcome", "opaque").increment();
+            return null;
+        }
+
+        if (!isAlgorithmAllowed(jwt.getHeader().getAlgorithm())) {
+            meterRegistry.counter("tenant.jwt.validations", "outcome", "disallowed_alg").increment();
+            return inactive();
+        }
+
+        try {
+            PublicKey key = getKey(appId, jwt.getHeader().getKeyID());
+            if (key == null) {
+                meterRegistry.counter("tenant.jwt.validations", "outcome", "unknown_kid").increment();
+                return null;
+            }
+            JWSVerifier verifier = new DefaultJWSVerifierFactory().createJWSVerifier(jwt.getHeader(), key);
+            JWTClaimsSet claims = jwt.getJWTClaimsSet();
+            boolean active = jwt.verify(verifier) && isTimeValid(claims) && isIssuerValid(claims, appId)
+                    && isAudienceValid(claims, appId);
+            meterRegistry.counter("tenant.jwt.validations", "outcome", active ? "active" : "inactive").increment();
+            return active ? toResult(claims) : inactive();
+        } catch (ParseException | JOSEException ex) {
+            logger.error("Exception at validate() : ", ex);
+            meterRegistry.counter("tenant.jwt.validations", "outcome", "inactive").increment();
+            return inactive();
+        } catch (IOException ex) {
+            // The key set could not be fetched, leave the decision to the tenant.
+            logger.error("Exception while fetching JWKS : ", ex);
+            meterRegistry.counter("tenant.jwt.validations", "outcome", "jwks_unavailable").increment();
+            return null;
+        }
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        cachedKeySet = null;
+    }
+
+    private PublicKey getKey(String appId, String keyId) throws IOException, JOSEException {
+        String jwksUrl = settingsService.getTenantURL() + "/OAuth2/Keys/" + appId;
+        CachedKeySet keySet = cachedKeySet;
+        if (keySet == null || !keySet.url.equals(jwksUrl) || keySet.isExpired(jwksTtlInSec)) {
+            keySet = fetchKeySet(jwksUrl, keySet);
+        }
+        JWK jwk = keySet.find(keyId);
+        if (jwk == null && keySet.mayRefetch(jwksMinRefetchIntervalInSec)) {
+            // Key rotation: the token may be signed with a key published after the last fetch.
+            jwk = fetchKeySet(jwksUrl, keySet).find(keyId);
+        }
+        if (!(jwk instanceof AsymmetricJWK)) {
+            return null;
+        }
+        return ((AsymmetricJWK) jwk).toPublicKey();
+    }
+
+    private CachedKeySet fetchKeySet(String jwksUrl, CachedKeySet seen) throws IOException {
+        jwksLock.lock();
+        try {
+            CachedKeySet current = cachedKeySet;
+            if (current != null && current != seen && current.url.equals(jwksUrl)) {
+                return current;
+            }
+            current = new CachedKeySet(jwksUrl, JWKSet.parse(download(jwksUrl)));
+            cachedKeySet = current;
+            return current;
+        } catch (ParseException ex) {
+            throw new IOException("Invalid JWKS received from " + jwksUrl, ex);
+        } finally {
+            jwksLock.unlock();
+        }
+    }
+
+    private String download(String jwksUrl) throws IOException {
+        Request request = new Request.Builder().url(jwksUrl).get().build();
+        try (Response response = httpClient.newCall(request).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                throw new IOException("JWKS request to " + jwksUrl + " failed with status code " + response.code());
+            }
+            return body.string();
+        }
+    }
+
+    private boolean isAlgorithmAllowed(JWSAlgorithm algorithm) {
+        return Arrays.asList(allowedAlgorithms).contains(algorithm.getName());
+    }
+
+    private boolean isTimeValid(JWTClaimsSet claims) {
+        long now = System.currentTimeMillis();
+        long skew = clockSkewInSec * 1000;
+        Date expiresAt = claims.getExpirationTime();
+        Date notBefore = claims.getNotBeforeTime();
+        if (expiresAt == null || now > expiresAt.getTime() + skew) {
+            return false;
+        }
+        return notBefore == null || now + skew >= notBefore.getTime();
+    }
+
+    private boolean isIssuerValid(JWTClaimsSet claims, String appId) {
+        String expectedIssuer = configuredIssuer.isEmpty()
+                ? settingsService.getTenantURL() + "/" + appId + "/"
+                : configuredIssuer;
+        return expectedIssuer.equals(claims.getIssuer());
+    }
+
+    private boolean isAudienceValid(JWTClaimsSet claims, String appId) {
+        List<String> expectedAudiences = configuredAudiences.isEmpty()
+                ? Collections.singletonList(appId)
+                : Arrays.asList(configuredAudiences.split("\\s*,\\s*"));
+        List<String> audiences = claims.getAudience();
+        return audiences.stream().anyMatch(expectedAudiences::contains);
+    }
+
+    private JsonNode toResult(JWTClaimsSet claims) {
+        ObjectNode result = Json.createObjectNode();
+        result.put(ACTIVE, true);
+        result.setAll((ObjectNode) Json.mapper().valueToTree(claims.toJSONObject()));
+        return result;
+    }
+
+    private JsonNode inactive() {
+        return Json.createObjectNode().put(ACTIVE, false);
+    }
+
+    private static class CachedKeySet {
+        private final String url;
+        private final JWKSet jwkSet;
+        private final long fetchedAt = System.currentTimeMillis();
+
+        private CachedKeySet(String url, JWKSet jwkSet) {
+            this.url = url;
+            this.jwkSet = jwkSet;
+        }
+
+        private JWK find(String keyId) {
+            if (keyId == null) {
+                return jwkSet.getKeys().size() == 1 ? jwkSet.getKeys().get(0) : null;
+            }
+            return jwkSet.getKeyByKeyId(keyId);
+        }
+
+        private boolean isExpired(long ttlInSec) {
+            return System.currentTimeMillis() - fetchedAt > ttlInSec * 1000;
+        }
+
+        private boolean mayRefetch(long minIntervalInSec) {
+            return System.currentTimeMillis() - fetchedAt > minIntervalInSec * 1000;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.cyberark.client.OAuthClient;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.utils.TokenFingerprint;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Objects;
+
+/**
+ *  Reuses OAuthClient / OIDCClient instances per (tenantUrl, appId, clientId, client secret hash).
+ *  The clients are immutable once built, so one instance is shared by all request threads.
+ *  All instances are dropped when settings change, so the next request builds them from the new settings.
+ */
+@Service
+public class OAuthClientRegistry {
+
+    @FunctionalInterface
+    public interface ClientFactory<T extends OAuthClient> {
+        T create() throws IOException;
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Client ID and secret may come from the browser, so the number of instances is capped.
+    @Value("${oauthClientRegistry.maxSize:100}")
+    private long maxSize;
+
+    private Cache<ClientKey, OAuthClient> clients;
+
+    @PostConstruct
+    void initClients() {
+        clients = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, clients, "oauthClients");
+    }
+
+    /**
+     *  Get the client for the given configuration, building it with the factory on first use.
+     *  @param type         OAuthClient or OIDCClient
+     *  @param tenantUrl    Tenant URL
+     *  @param appId        Application ID
+     *  @param clientId     Client ID
+     *  @param clientSecret Client secret, null for public clients
+     *  @param factory      Builds the client
+     *  @return shared client instance
+     *  @throws IOException when the client cannot be built
+     */
+    public <T extends OAuthClient> T getClient(Class<T> type, String tenantUrl, String appId, String clientId,
+                                               char[] clientSecret, ClientFactory<T> factory) throws IOException {
+        String secretHash = clientSecret == null ? null : TokenFingerprint.of(String.valueOf(clientSecret));
+        ClientKey key = new ClientKey(type, tenantUrl, appId, clientId, secretHash);
+        try {
+            return type.cast(clients.get(key, k -> {
+                try {
+                    return factory.create();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }));
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        clients.invalidateAll();
+    }
+
+    private static final class ClientKey {
+        private final Class<?> type;
+        private final String tenantUrl;
+        private final String appId;
+        private final String clientId;
+        private final String secretHash;
+
+        private ClientKey(Class<?> type, String tenantUrl, String appId, String clientId, String secretHash) {
+            this.type = type;
+            this.tenantUrl = tenantUrl;
+            this.appId = appId;
+            this.clientId = clientId;
+            this.secretHash = secretHash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof ClientKey)) return false;
+            ClientKey that = (ClientKey) o;
+            return type == that.type && Objects.equals(tenantUrl, that.tenantUrl) && Objects.equals(appId, that.appId)
+                    && Objects.equals(clientId, that.clientId) && Objects.equals(secretHash, that.secretHash);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, tenantUrl, appId, clientId, secretHash);
+        }
+    }
+}
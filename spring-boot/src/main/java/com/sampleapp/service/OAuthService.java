@@ -40,6 +40,18 @@ public class OAuthService extends BaseAuthorizationService<OAuthClient>{
     @Autowired
     private SettingsService settingsService;
 
+    @Autowired
+    private JwtValidationService jwtValidationService;
+
+    @Autowired
+    private TokenResultCache tokenResultCache;
+
+    @Autowired
+    private OAuthClientRegistry clientRegistry;
+
+    @Autowired
+    private TenantSdkClients sdkClients;
+
     public OAuthService() { }
 
     @Override
@@ -60,6 +72,7 @@ public class OAuthService extends BaseAuthorizationService<OAuthClient>{
 
     /**
      *  Get OAuthClient Instance to make authorized API requests.
+     *  Instances are shared per tenant, application and client credentials until settings change.
      *  @param clientId         OAuth App Client Id
      *  @param clientSec     OAuth App Client Secret
      *  @return OAuthClient Instance to make authorized API requests.
@@ -67,27 +80,29 @@ public class OAuthService extends BaseAuthorizationService<OAuthClient>{
      */
     @Override
     public OAuthClient getClient(String clientId, char[] clientSec) throws IOException {
-        if (clientSec == null){
-            return new OAuthClient(settingsService.getTenantURL(), settingsService.getOauthApplicationID(), clientId);
-        }
-        else {
-            return new OAuthClient(settingsService.getTenantURL(), settingsService.getOauthApplicationID(), clientId, String.valueOf(clientSec));
-        }
+        String tenantUrl = settingsService.getTenantURL();
+        String appId = settingsService.getOauthApplicationID();
+        return clientRegistry.getClient(OAuthClient.class, tenantUrl, appId, clientId, clientSec,
+                () -> sdkClients.newOAuthClient(tenantUrl, appId, clientId, clientSec));
     }
 
     /**
      *  Get Tokens using Client Credentials Grant flow with reference to OAuthClient.
+     *  Concurrent requests for the same tenant, application, client and scope share a single token endpoint call.
      *  @param tokenMetadataRequest Input parameter
      *  @return TokenHolder An Object that holds access_token, refresh_token, token_type, scope, expires_in
      */
     @Override
     public TokenHolder getTokenSetWithClientCreds(TokenMetadataRequest tokenMetadataRequest) throws IOException {
         try {
-            return this.getClient(settingsService.getOauthServiceUserName(), settingsService.getOauthServiceUserPass())
-                    .requestTokenWithClientCreds()
-                    .setGrantType(tokenMetadataRequest.grantType.name())
-                    .setScope(this.getScopesSupported())
-                    .execute();
+            TokenEndpointKey key = new TokenEndpointKey(settingsService.getTenantURL(), this.getAppId(),
+                    settingsService.getOauthServiceUserName(), this.getScopesSupported());
+            return this.tokenRequests.execute(key, () ->
+                    this.getClient(settingsService.getOauthServiceUserName(), settingsService.getOauthServiceUserPass())
+                            .requestTokenWithClientCreds()
+                            .setGrantType(tokenMetadataRequest.grantType.name())
+                            .setScope(this.getScopesSupported())
+                            .execute());
         } catch (IdentityException ex) {
             logger.error("Exception at getTokenSetWithClientCreds() : ", ex);
             throw ex;
@@ -115,18 +130,26 @@ public class OAuthService extends BaseAuthorizationService<OAuthClient>{
 
     /**
      *  Validate the jwt or opaque token by introspect end point.
+     *  JWTs signed with a known tenant key are validated locally, the introspect end point is only called for the rest.
+     *  Results are cached until the token expires.
      *  @param accessToken Input parameter
      *  @return JsonNode An Object that returns token active status
      */
     public JsonNode introspect(String accessToken) throws IOException {
-        try {
-            return (JsonNode) this.getClient(settingsService.getOauthServiceUserName(), settingsService.getOauthServiceUserPass())
-                    .introspect(accessToken)
-                    .execute();
-        } catch (IdentityException ex) {
-            logger.error("Exception at introspect() : ", ex);
-            throw ex;
-        }
+        return tokenResultCache.getIntrospection(accessToken, () -> {
+            JsonNode localResult = jwtValidationService.validate(accessToken, this.getAppId());
+            if (localResult != null) {
+                return localResult;
+            }
+            try {
+                return (JsonNode) this.getClient(settingsService.getOauthServiceUserName(), settingsService.getOauthServiceUserPass())
+                        .introspect(accessToken)
+                        .execute();
+            } catch (IdentityException ex) {
+                logger.error("Exception at introspect() : ", ex);
+                throw ex;
+            }
+        });
     }
 
     @Override
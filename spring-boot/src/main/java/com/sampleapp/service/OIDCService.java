@@ -24,13 +24,32 @@ import com.sampleapp.entity.TokenMetadataRequest;
 import com.sampleapp.entity.OIDCTokens;
 import com.cyberark.exception.IdentityException;
 import com.sampleapp.entity.AuthorizationFlow;
+import com.sampleapp.entity.PendingRevocation;
+import com.sampleapp.repos.PendingRevocationRepository;
+import com.sampleapp.utils.TokenCipher;
+import io.micrometer.core.instrument.Gauge;
 import org.apache.commons.lang.NotImplementedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class OIDCService extends BaseAuthorizationService<OIDCClient> {
@@ -40,8 +59,60 @@ public class OIDCService extends BaseAuthorizationService<OIDCClient> {
     @Autowired
     private SettingsService settingsService;
 
+    @Autowired
+    private TokenResultCache tokenResultCache;
+
+    @Autowired
+    private OAuthClientRegistry clientRegistry;
+
+    @Autowired
+    private TenantSdkClients sdkClients;
+
+    @Autowired
+    private PendingRevocationRepository pendingRevocationRepository;
+
+    @Autowired
+    @Qualifier("tenantExecutor")
+    private Executor tenantExecutor;
+
+    // When set, revokeToken only queues the revocations and returns, they are completed in the background.
+    @Value("${tokenRevocation.async:false}")
+    private boolean asyncRevocation;
+
+    @Value("${tokenRevocation.maxAttempts:5}")
+    private int maxRevocationAttempts;
+
+    @Value("${tokenRevocation.retryDelayInSec:30}")
+    private long revocationRetryDelayInSec;
+
+    @Value("${tokenRevocation.retryBatchSize:50}")
+    private int revocationRetryBatchSize;
+
+    // Longer than any single attempt takes, including timeouts and retries
+    @Value("${tokenRevocation.claimInSec:300}")
+    private long revocationClaimInSec;
+
+    // Base64 AES key queued tokens are encrypted with. Without one, queued revocations do not survive a restart.
+    @Value("${tokenRevocation.encryptionKey:}")
+    private String revocationEncryptionKey;
+
+    private TokenCipher tokenCipher;
+
     public OIDCService() { }
 
+    @PostConstruct
+    void initRevocationMetrics() {
+        if (revocationEncryptionKey.isEmpty()) {
+            logger.warn("No tokenRevocation.encryptionKey configured, queued revocations are dropped on restart");
+            tokenCipher = TokenCipher.withRandomKey();
+        } else {
+            tokenCipher = TokenCipher.withKey(revocationEncryptionKey);
+        }
+        Gauge.builder("tenant.token.revocations.pending", pendingRevocationRepository, PendingRevocationRepository::count)
+                .description("Revocations waiting in the retry queue")
+                .register(meterRegistry);
+    }
+
     @Override
     public AuthorizationFlow supportedAuthorizationFlow() { return AuthorizationFlow.OIDC; }
 
@@ -62,6 +133,7 @@ public class OIDCService extends BaseAuthorizationService<OIDCClient> {
 
     /**
      *  Get OIDCClient Instance to make authorized API requests.
+     *  Instances are shared until settings change.
      *  @param clientId         OIDC App Client Id
      *  @param clientSecret     OIDC App Client Secret
      *  @return OIDCClient Instance to make authorized API requests.
@@ -69,59 +141,149 @@ public class OIDCService extends BaseAuthorizationService<OIDCClient> {
      */
     @Override
     public OIDCClient getClient(String clientId, char[] clientSecret) throws IOException {
-        return new OIDCClient(settingsService.getTenantURL(), settingsService.getOIDCApplicationID(), settingsService.getOIDCClientID());
+        String tenantUrl = settingsService.getTenantURL();
+        String appId = settingsService.getOIDCApplicationID();
+        String oidcClientId = settingsService.getOIDCClientID();
+        return clientRegistry.getClient(OIDCClient.class, tenantUrl, appId, oidcClientId, null,
+                () -> sdkClients.newOIDCClient(tenantUrl, appId, oidcClientId, null));
     }
 
     /**
-     *  Get UserInfo using OIDCClient
+     *  Get the confidential OIDCClient holding the OIDC client secret, required to revoke tokens.
+     *  @return OIDCClient Instance to make authorized API requests.
+     *  @throws IOException
+     */
+    private OIDCClient getConfidentialClient() throws IOException {
+        String tenantUrl = settingsService.getTenantURL();
+        String appId = settingsService.getOIDCApplicationID();
+        String oidcClientId = settingsService.getOIDCClientID();
+        char[] oidcClientPass = settingsService.getOIDCClientPass();
+        return clientRegistry.getClient(OIDCClient.class, tenantUrl, appId, oidcClientId, oidcClientPass,
+                () -> sdkClients.newOIDCClient(tenantUrl, appId, oidcClientId, oidcClientPass));
+    }
+
+    /**
+     *  Get UserInfo using OIDCClient, cached until the access token expires.
      *  @param accessToken Input string
      *  @return UserInfo An Object that holds user related info.
      */
     @Override
     public UserInfo getUserInfo(String accessToken) throws IOException {
-        UserInfo userInfo;
-        try {
-            userInfo = this.getClient(null, null)
-                    .userInfo(accessToken)
-                    .execute();
-            return userInfo;
-        } catch (IdentityException ex) {
-            logger.error("Exception at getUserInfo() : ", ex);
-            throw ex;
-        }
+        return tokenResultCache.getUserInfo(accessToken, () -> {
+            try {
+                return this.getClient(null, null)
+                        .userInfo(accessToken)
+                        .execute();
+            } catch (IdentityException ex) {
+                logger.error("Exception at getUserInfo() : ", ex);
+                throw ex;
+            }
+        });
     }
 
     /**
      *  Revoke Access Tokens, ID Token using OIDCClient
      *  Revoking ID Token as the lifetime of id_token is equivalent to Access Token
+     *  The tokens are revoked in parallel. With tokenRevocation.async the revocations are queued and completed in the background.
      *  @param oidcTokens Holds Access Token and ID Token received from Authorize Response(Frontend) and also Access Token received from Token Endpoint (Backend).
      *  @return true on success.
      */
     @Override
     public Boolean revokeToken(OIDCTokens oidcTokens) throws IOException {
-        try {
-            OIDCClient oidcClient = new OIDCClient(settingsService.getTenantURL(), settingsService.getOIDCApplicationID(), settingsService.getOIDCClientID(), String.valueOf(settingsService.getOIDCClientPass()));
+        List<String> tokens = Stream.of(oidcTokens.authResponseAccessToken, oidcTokens.authResponseIDToken, oidcTokens.tokenResponseAccessToken)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        tokens.forEach(tokenResultCache::evict);
 
-            if (oidcTokens.authResponseAccessToken != null) {
-                oidcClient.revokeToken(oidcTokens.authResponseAccessToken)
-                        .execute();
-            }
-            if (oidcTokens.authResponseIDToken != null) {
-                oidcClient.revokeToken(oidcTokens.authResponseIDToken)
-                        .execute();
-            }
-            if (oidcTokens.tokenResponseAccessToken != null) {
-                oidcClient.revokeToken(oidcTokens.tokenResponseAccessToken)
-                        .execute();
-            }
+        if (asyncRevocation) {
+            this.queueRevocations(tokens);
+            return true;
+        }
+        try {
+            CompletableFuture.allOf(tokens.stream()
+                    .map(token -> CompletableFuture.runAsync(() -> this.revokeSync(token), tenantExecutor))
+                    .toArray(CompletableFuture[]::new))
+                    .join();
             return true;
         }
-        catch (IdentityException ex) {
-            logger.error("Exception at revokeToken() : ", ex);
+        catch (CompletionException ex) {
+            logger.error("Exception at revokeToken() : ", ex.getCause());
+            if (ex.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) ex.getCause()).getCause();
+            }
             throw ex;
         }
     }
 
+    private void revokeSync(String token) {
+        try {
+            this.getConfidentialClient().revokeToken(token).execute();
+            meterRegistry.counter("tenant.token.revocations", "mode", "sync", "outcome", "success").increment();
+        } catch (IOException ex) {
+            meterRegistry.counter("tenant.token.revocations", "mode", "sync", "outcome", "failure").increment();
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // Persist first, encrypted and claimed by the first attempt, so a revocation survives a restart, then make the first attempt right away.
+    private void queueRevocations(List<String> tokens) {
+        Date firstRetry = new Date(System.currentTimeMillis() + revocationRetryDelayInSec * 1000);
+        Date claimedUntil = new Date(System.currentTimeMillis() + revocationClaimInSec * 1000);
+        for (String token : tokens) {
+            PendingRevocation pendingRevocation = pendingRevocationRepository.save(
+                    new PendingRevocation(tokenCipher.encrypt(token), firstRetry, claimedUntil));
+            tenantExecutor.execute(() -> this.attemptRevocation(pendingRevocation));
+        }
+    }
+
+    /**
+     *  Retry queued revocations that are due.
+     */
+    @Scheduled(fixedDelayString = "${tokenRevocation.retryIntervalInMs:10000}")
+    public void retryPendingRevocations() {
+        Date now = new Date();
+        Date claimedUntil = new Date(now.getTime() + revocationClaimInSec * 1000);
+        List<PendingRevocation> due = pendingRevocationRepository.findDue(now, PageRequest.of(0, revocationRetryBatchSize));
+        for (PendingRevocation pendingRevocation : due) {
+            if (pendingRevocationRepository.claim(pendingRevocation.getId(), now, claimedUntil) > 0) {
+                this.attemptRevocation(pendingRevocation);
+            }
+        }
+    }
+
+    private void attemptRevocation(PendingRevocation pendingRevocation) {
+        String token;
+        try {
+            token = tokenCipher.decrypt(pendingRevocation.getToken());
+        } catch (GeneralSecurityException ex) {
+            logger.error("Dropping revocation encrypted with another key : " + ex.getMessage());
+            pendingRevocationRepository.delete(pendingRevocation);
+            meterRegistry.counter("tenant.token.revocations", "mode", "async", "outcome", "abandoned").increment();
+            return;
+        }
+        try {
+            this.getConfidentialClient().revokeToken(token).execute();
+            pendingRevocationRepository.delete(pendingRevocation);
+            meterRegistry.counter("tenant.token.revocations", "mode", "async", "outcome", "success").increment();
+        } catch (Exception ex) {
+            int attempts = pendingRevocation.getAttempts() + 1;
+            if (attempts >= maxRevocationAttempts) {
+                logger.error("Giving up revoking token after " + attempts + " attempts : ", ex);
+                pendingRevocationRepository.delete(pendingRevocation);
+                meterRegistry.counter("tenant.token.revocations", "mode", "async", "outcome", "abandoned").increment();
+                return;
+            }
+            logger.warn("Exception at attemptRevocation(), attempt " + attempts + " : " + ex.getMessage());
+            // Exponential backoff: retryDelay, 2 x retryDelay, 4 x retryDelay, ...
+            long delayInMs = revocationRetryDelayInSec * 1000 * (1L << (attempts - 1));
+            pendingRevocation.setAttempts(attempts);
+            pendingRevocation.setNextAttemptDateTime(new Date(System.currentTimeMillis() + delayInMs));
+            pendingRevocation.setClaimedUntil(null);
+            pendingRevocationRepository.save(pendingRevocation);
+            meterRegistry.counter("tenant.token.revocations", "mode", "async", "outcome", "failure").increment();
+        }
+    }
+
     @Override
     public JsonNode introspect(String accessToken) throws IOException {
         throw new NotImplementedException();
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sampleapp.config.TenantResilienceInterceptor;
+import com.sampleapp.utils.Json;
+import com.sampleapp.utils.TenantCallContext;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.FormBody;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.UnknownHttpStatusCodeException;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  TenantGateway on the shared tenant OkHttpClient. Calls are enqueued on the client's dispatcher,
+ *  so no thread waits for the tenant while a request is in flight.
+ */
+@Service
+public class OkHttpTenantGateway implements TenantGateway {
+
+    @FunctionalInterface
+    private interface BodyReader<T> {
+        T read(byte[] content) throws IOException;
+    }
+
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    @Autowired
+    @Qualifier("tenantHttpClient")
+    private OkHttpClient httpClient;
+
+    // Below spring.mvc.async.request-timeout, so a call is cancelled, releasing its connection, before the servlet gives up on it
+    @Value("${tenantGateway.callTimeoutInMs:55000}")
+    private long callTimeoutInMs;
+
+    @Override
+    public CompletableFuture<ResponseEntity<JsonNode>> exchange(String url, HttpMethod method, HttpEntity<?> request) {
+        return send(url, method, request, content -> content.length == 0 ? null : Json.readTree(content));
+    }
+
+    @Override
+    public CompletableFuture<ResponseEntity<byte[]>> exchangeForBytes(String url, HttpMethod method, HttpEntity<?> request) {
+        return send(url, method, request, content -> content);
+    }
+
+    private <T> CompletableFuture<ResponseEntity<T>> send(String url, HttpMethod method, HttpEntity<?> request, BodyReader<T> reader) {
+        CompletableFuture<ResponseEntity<T>> future = new CompletableFuture<>();
+        TenantCallContext context = TenantCallContext.current();
+        Call call;
+        try {
+            call = httpClient.newCall(toRequest(url, method, request, context));
+            call.timeout().timeout(callTimeoutInMs, TimeUnit.MILLISECONDS);
+        } catch (IOException | IllegalArgumentException ex) {
+            future.completeExceptionally(ex);
+            return future;
+        }
+        // Dependent stages run on the OkHttp thread, so the context is restored there for the calls they make.
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException ex) {
+                TenantCallContext.runWith(context, () -> future.completeExceptionally(new ResourceAccessException(
+                        "I/O error on " + method + " request for \"" + url + "\": " + ex.getMessage(), ex)));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                ResponseEntity<T> result;
+                try (ResponseBody body = response.body()) {
+                    result = toResponseEntity(response, body, reader);
+                } catch (Exception ex) {
+                    TenantCallContext.runWith(context, () -> future.completeExceptionally(ex));
+                    return;
+                }
+                TenantCallContext.runWith(context, () -> future.complete(result));
+            }
+        });
+        return future;
+    }
+
+    private Request toRequest(String url, HttpMethod method, HttpEntity<?> request, TenantCallContext context) throws IOException {
+        Headers.Builder headers = new Headers.Builder();
+        for (Map.Entry<String, List<String>> header : request.getHeaders().entrySet()) {
+            for (String value : header.getValue()) {
+                headers.add(header.getKey(), value);
+            }
+        }
+        return new Request.Builder()
+                .url(url)
+                .headers(headers.build())
+                .method(method.name(), toRequestBody(method, request))
+                .tag(TenantCallContext.class, context)
+                .tag(TenantResilienceInterceptor.Enqueued.class, TenantResilienceInterceptor.Enqueued.INSTANCE)
+                .build();
+    }
+
+    private RequestBody toRequestBody(HttpMethod method, HttpEntity<?> request) throws IOException {
+        Object body = request.getBody();
+        org.springframework.http.MediaType contentType = request.getHeaders().getContentType();
+        MediaType mediaType = contentType == null ? JSON : MediaType.parse(contentType.toString());
+        if (body instanceof MultiValueMap) {
+            FormBody.Builder form = new FormBody.Builder(StandardCharsets.UTF_8);
+            for (Map.Entry<?, ? extends List<?>> field : ((MultiValueMap<?, ?>) body).entrySet()) {
+                for (Object value : field.getValue()) {
+                    form.add(String.valueOf(field.getKey()), String.valueOf(value));
+                }
+            }
+            return form.build();
+        }
+        if (body == null) {
+            boolean requiresBody = method == HttpMethod.POST || method == HttpMethod.PUT || method == HttpMethod.PATCH;
+            return requiresBody ? RequestBody.create(new byte[0], mediaType) : null;
+        }
+        byte[] content = body instanceof String
+                ? ((String) body).getBytes(StandardCharsets.UTF_8)
+                : Json.writeValueAsBytes(body);
+        return RequestBody.create(content, mediaType);
+    }
+
+    private <T> ResponseEntity<T> toResponseEntity(Response response, ResponseBody body, BodyReader<T> reader) throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        for (String name : response.headers().names()) {
+            headers.put(name, response.headers(name));
+        }
+        byte[] content = body == null ? new byte[0] : body.bytes();
+        int code = response.code();
+        HttpStatus status = HttpStatus.resolve(code);
+        if (status == null || status.isError()) {
+            Charset charset = body != null && body.contentType() != null
+                    ? body.contentType().charset(StandardCharsets.UTF_8)
+                    : StandardCharsets.UTF_8;
+            if (status == null) {
+                throw new UnknownHttpStatusCodeException(code, response.message(), headers, content, charset);
+            }
+            if (status.is4xxClientError()) {
+                throw HttpClientErrorException.create(status, response.message(), headers, content, charset);
+            }
+            throw HttpServerErrorException.create(status, response.message(), headers, content, charset);
+        }
+        return new ResponseEntity<>(reader.read(content), headers, status);
+    }
+}
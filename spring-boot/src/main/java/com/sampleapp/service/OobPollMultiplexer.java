@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sampleapp.utils.Json;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Long-poll multiplexer for out-of-band challenges (push, email link) that the browser polls with Action "Poll".
+ *  All browser polls of one tenant SessionId and mechanism share one poll loop, which polls the tenant on an
+ *  interval that starts at initialIntervalInMs and grows up to maxIntervalInMs. While a single browser waits, the
+ *  tenant is polled no faster than singleWaiterIntervalInMs, the interval browsers used to poll at.
+ *  Each browser poll is held until the result is no longer OobPending or the long-poll timeout passes, then answered
+ *  with the latest tenant response. A browser poll that is cancelled, e.g. because its servlet request timed out,
+ *  stops waiting, and the loop stops as soon as no browser waits on it.
+ *  The loop sends the tenant only the fields that identify the challenge, never anything of a single browser.
+ */
+@Service
+public class OobPollMultiplexer {
+
+    private static final String PENDING = "OobPending";
+
+    private static final String[] POLL_FIELDS = { "TenantId", "SessionId", "MechanismId", "Action" };
+
+    private final Logger logger = LoggerFactory.getLogger(OobPollMultiplexer.class);
+
+    @Autowired
+    private TenantGateway tenantGateway;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${oobPoll.initialIntervalInMs:1000}")
+    private long initialIntervalInMs;
+
+    @Value("${oobPoll.maxIntervalInMs:5000}")
+    private long maxIntervalInMs;
+
+    @Value("${oobPoll.singleWaiterIntervalInMs:5000}")
+    private long singleWaiterIntervalInMs;
+
+    @Value("${oobPoll.intervalMultiplier:1.5}")
+    private double intervalMultiplier;
+
+    // Below spring.mvc.async.request-timeout, so a held poll is always answered before the servlet gives up on it
+    @Value("${oobPoll.longPollTimeoutInSec:25}")
+    private long longPollTimeoutInSec;
+
+    private final ConcurrentHashMap<String, PollLoop> loops = new ConcurrentHashMap<>();
+
+    private Counter browserPolls;
+
+    private Counter tenantPolls;
+
+    @PostConstruct
+    void initMetrics() {
+        browserPolls = Counter.builder("auth.oob.polls")
+                .description("Polls of out-of-band challenges")
+                .tag("source", "browser")
+                .register(meterRegistry);
+        tenantPolls = Counter.builder("auth.oob.polls")
+                .description("Polls of out-of-band challenges")
+                .tag("source", "tenant")
+                .register(meterRegistry);
+        Gauge.builder("auth.oob.sessions", loops, ConcurrentHashMap::size)
+                .description("Out-of-band challenges currently polled")
+                .register(meterRegistry);
+    }
+
+    /**
+     *  @param authRequest AdvanceAuthentication request from the browser
+     *  @return whether the request polls an out-of-band challenge and can be served by poll
+     */
+    public static boolean isPoll(JsonNode authRequest) {
+        return authRequest != null && "Poll".equals(authRequest.path("Action").asText())
+                && authRequest.hasNonNull("SessionId");
+    }
+
+    /**
+     *  Join the poll loop of the challenge, starting it when there is none.
+     *  @param url         AdvanceAuthentication URL
+     *  @param headers     Headers of the tenant polls, the same for every browser
+     *  @param authRequest Poll request from the browser
+     *  @return future completed with the tenant response once the challenge is no longer pending or the
+     *          long-poll timeout passes, or exceptionally as TenantGateway.exchangeForBytes. Cancel it to stop waiting.
+     */
+    public CompletableFuture<ResponseEntity<byte[]>> poll(String url, HttpHeaders headers, JsonNode authRequest) {
+        browserPolls.increment();
+        String key = authRequest.path("SessionId").asText() + '/' + authRequest.path("MechanismId").asText();
+        while (true) {
+            PollLoop loop = loops.computeIfAbsent(key, k -> new PollLoop(k, url, new HttpEntity<>(pollBody(authRequest), headers)));
+            CompletableFuture<ResponseEntity<byte[]>> result = loop.join();
+            if (result != null) {
+                return result;
+            }
+            // The loop finished between lookup and join
+            loops.remove(key, loop);
+        }
+    }
+
+    private static ObjectNode pollBody(JsonNode authRequest) {
+        ObjectNode body = JsonNodeFactory.instance.objectNode();
+        for (String field : POLL_FIELDS) {
+            if (authRequest.hasNonNull(field)) {
+                body.set(field, authRequest.get(field));
+            }
+        }
+        return body;
+    }
+
+    private class PollLoop {
+        private final String key;
+        private final String url;
+        private final HttpEntity<JsonNode> request;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final List<CompletableFuture<ResponseEntity<byte[]>>> waiters = new ArrayList<>();
+        private long intervalMillis = initialIntervalInMs;
+        private boolean polling;
+        private boolean finished;
+        private ResponseEntity<byte[]> lastPending;
+
+        private PollLoop(String key, String url, HttpEntity<JsonNode> request) {
+            this.key = key;
+            this.url = url;
+            this.request = request;
+        }
+
+        // Null when the loop has finished and a new one has to be started.
+        private CompletableFuture<ResponseEntity<byte[]>> join() {
+            CompletableFuture<ResponseEntity<byte[]>> waiter = new CompletableFuture<>();
+            boolean start;
+            lock.lock();
+            try {
+                if (finished) {
+                    return null;
+                }
+                waiters.add(waiter);
+                start = !polling;
+                polling = true;
+            } finally {
+                lock.unlock();
+            }
+            ScheduledFuture<?> timeout = taskScheduler.schedule(() -> expire(waiter),
+                    Instant.now().plusSeconds(longPollTimeoutInSec));
+            waiter.whenComplete((result, ex) -> {
+                timeout.cancel(false);
+                leave(waiter);
+            });
+            if (start) {
+                pollTenant();
+            }
+            return waiter;
+        }
+
+        // Answers a held browser poll with the latest pending response, unless no tenant response came in yet.
+        private void expire(CompletableFuture<ResponseEntity<byte[]>> waiter) {
+            ResponseEntity<byte[]> pending;
+            lock.lock();
+            try {
+                pending = lastPending;
+                if (pending == null || !waiters.remove(waiter)) {
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            waiter.complete(pending);
+        }
+
+        // No-op for a waiter the loop already answered.
+        private void leave(CompletableFuture<ResponseEntity<byte[]>> waiter) {
+            lock.lock();
+            try {
+                waiters.remove(waiter);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void pollTenant() {
+            boolean abandoned;
+            lock.lock();
+            try {
+                abandoned = waiters.isEmpty();
+                finished = abandoned;
+            } finally {
+                lock.unlock();
+            }
+            if (abandoned) {
+                loops.remove(key, this);
+                return;
+            }
+            tenantPolls.increment();
+            tenantGateway.exchangeForBytes(url, HttpMethod.POST, request).whenComplete(this::onTenantResponse);
+        }
+
+        private void onTenantResponse(ResponseEntity<byte[]> response, Throwable ex) {
+            List<CompletableFuture<ResponseEntity<byte[]>>> done;
+            lock.lock();
+            try {
+                if (ex == null && isPending(response)) {
+                    lastPending = response;
+                    if (!waiters.isEmpty()) {
+                        long delay = waiters.size() > 1 ? intervalMillis : Math.max(intervalMillis, singleWaiterIntervalInMs);
+                        taskScheduler.schedule(this::pollTenant, Instant.now().plusMillis(delay));
+                        intervalMillis = Math.min(maxIntervalInMs, (long) (intervalMillis * intervalMultiplier));
+                        return;
+                    }
+                }
+                finished = true;
+                done = new ArrayList<>(waiters);
+                waiters.clear();
+            } finally {
+                lock.unlock();
+            }
+            loops.remove(key, this);
+            for (CompletableFuture<ResponseEntity<byte[]>> waiter : done) {
+                if (ex != null) {
+                    waiter.completeExceptionally(ex);
+                } else {
+                    waiter.complete(response);
+                }
+            }
+        }
+
+        private boolean isPending(ResponseEntity<byte[]> response) {
+            try {
+                return PENDING.equals(Json.findResultField(response.getBody(), "Summary"));
+            } catch (Exception ex) {
+                logger.warn("Unreadable poll response of out-of-band challenge {}", key);
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.cyberark.utils.PKCEUtil;
+import com.sampleapp.entity.PKCEMetaData;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ *  Pool of pre-generated, single-use PKCE code verifier / code challenge pairs.
+ *  Taking a pair never blocks: when the pool is empty the pair is generated on the calling thread.
+ *  Once the pool drops below the low watermark a background thread refills it up to the high watermark.
+ */
+@Service
+public class PkcePool {
+
+    private final Logger logger = LoggerFactory.getLogger(PkcePool.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${pkcePool.lowWatermark:64}")
+    private int lowWatermark;
+
+    @Value("${pkcePool.highWatermark:256}")
+    private int highWatermark;
+
+    private final ConcurrentLinkedQueue<PKCEMetaData> pool = new ConcurrentLinkedQueue<>();
+
+    // ConcurrentLinkedQueue.size() is O(n), so the depth is tracked separately.
+    private final AtomicInteger depth = new AtomicInteger();
+
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private final ExecutorService refillExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pkce-pool-refill");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Counter refilled;
+    private Counter servedFromPool;
+    private Counter generatedInline;
+
+    @PostConstruct
+    void init() {
+        Gauge.builder("pkce.pool.depth", depth, AtomicInteger::get)
+                .description("PKCE pairs available in the pool")
+                .register(meterRegistry);
+        refilled = meterRegistry.counter("pkce.pool.refilled");
+        servedFromPool = meterRegistry.counter("pkce.pool.taken", "source", "pool");
+        generatedInline = meterRegistry.counter("pkce.pool.taken", "source", "inline");
+        triggerRefill();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        refillExecutor.shutdownNow();
+    }
+
+    /**
+     *  Take a PKCE pair that has not been handed out before.
+     *  @return PKCEMetaData holding code verifier and code challenge
+     *  @throws NoSuchAlgorithmException when the pair has to be generated inline and SHA-256 is unavailable
+     */
+    public PKCEMetaData take() throws NoSuchAlgorithmException {
+        PKCEMetaData pkceMetaData = pool.poll();
+        if (pkceMetaData != null) {
+            if (depth.decrementAndGet() < lowWatermark) {
+                triggerRefill();
+            }
+            servedFromPool.increment();
+            return pkceMetaData;
+        }
+        triggerRefill();
+        generatedInline.increment();
+        return generate();
+    }
+
+    private void triggerRefill() {
+        if (refilling.compareAndSet(false, true)) {
+            refillExecutor.execute(this::refill);
+        }
+    }
+
+    private void refill() {
+        try {
+            while (depth.get() < highWatermark && !Thread.currentThread().isInterrupted()) {
+                pool.offer(generate());
+                depth.incrementAndGet();
+                refilled.increment();
+            }
+        } catch (Exception ex) {
+            logger.error("Exception at refill() : ", ex);
+        } finally {
+            refilling.set(false);
+        }
+        // A take() may have found the refill still running while the pool dropped below the low watermark.
+        if (depth.get() < lowWatermark && !Thread.currentThread().isInterrupted()) {
+            triggerRefill();
+        }
+    }
+
+    private static PKCEMetaData generate() throws NoSuchAlgorithmException {
+        PKCEMetaData pkceMetaData = new PKCEMetaData();
+        pkceMetaData.codeVerifier = PKCEUtil.generateCodeVerifier();
+        pkceMetaData.codeChallenge = PKCEUtil.generateCodeChallenge(pkceMetaData.codeVerifier);
+        return pkceMetaData;
+    }
+}
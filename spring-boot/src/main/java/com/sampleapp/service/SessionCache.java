@@ -0,0 +1,414 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+import com.sampleapp.entity.SessionExpiredEvent;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.entity.TokenStore;
+import com.sampleapp.repos.TokenStoreRepository;
+import com.sampleapp.utils.TokenFingerprint;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *  In-memory view of the TokenStore table (flow3 sessions), indexed by user ID, session UUID and MFA token fingerprint.
+ *  Lookups and heartbeats are served from memory. Creating, changing and deleting a session write through to the
+ *  database right away. Activity is tracked in memory and lastActiveDateTime is written behind in batched UPDATEs,
+ *  only once it has moved by persistGranularityInSec since it was last written.
+ *  A cached session expires when its inactive time runs out. Caffeine keeps the deadlines in a hierarchical timing
+ *  wheel, so a heartbeat reschedules its session in constant time, and a SessionExpiredEvent is published for it.
+ *  Assumes this application instance is the only writer of the table.
+ */
+@Service
+public class SessionCache {
+
+    private final Logger logger = LoggerFactory.getLogger(SessionCache.class);
+
+    @Autowired
+    private TokenStoreRepository tokenStoreRepository;
+
+    @Autowired
+    private SettingsService settingsService;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${sessionCache.maxSize:1000000}")
+    private long maxSize;
+
+    // How far lastActiveDateTime may run ahead of the database before it is written
+    @Value("${sessionCache.persistGranularityInSec:30}")
+    private long persistGranularityInSec;
+
+    private Cache<Integer, Session> sessions;
+
+    private Policy.VarExpiration<Integer, Session> expiration;
+
+    private final ConcurrentHashMap<String, Integer> userIdsBySession = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, Integer> userIdsByToken = new ConcurrentHashMap<>();
+
+    // lastActiveDateTime per user ID not written to the database yet
+    private final ConcurrentHashMap<Integer, Date> pendingLastActive = new ConcurrentHashMap<>();
+
+    private Counter activityCoalesced;
+
+    private Counter activityQueued;
+
+    private Counter activityWritten;
+
+    @PostConstruct
+    void initCache() {
+        sessions = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<Integer, Session>() {
+                    @Override
+                    public long expireAfterCreate(Integer userId, Session session, long currentTime) {
+                        return remainingNanos(session.lastActiveDateTime.get());
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(Integer userId, Session session, long currentTime, long currentDuration) {
+                        return expireAfterCreate(userId, session, currentTime);
+                    }
+
+                    // Only heartbeats extend a session, see extend
+                    @Override
+                    public long expireAfterRead(Integer userId, Session session, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                // Expire sessions when their deadline passes, not only on the next cache activity
+                .scheduler(Scheduler.systemScheduler())
+                .evictionListener((Integer userId, Session session, RemovalCause cause) -> unindex(session))
+                .removalListener((Integer userId, Session session, RemovalCause cause) -> {
+                    if (cause == RemovalCause.EXPIRED && session != null) {
+                        eventPublisher.publishEvent(new SessionExpiredEvent(this, session.toTokenStore()));
+                    }
+                })
+                .recordStats()
+                .build();
+        expiration = sessions.policy().expireVariably().get();
+        CaffeineCacheMetrics.monitor(meterRegistry, sessions, "sessions");
+        Gauge.builder("sessions.pending.writes", pendingLastActive, Map::size)
+                .description("Session activity updates not written to the database yet")
+                .register(meterRegistry);
+        activityCoalesced = Counter.builder("sessions.activity")
+                .description("Session activity by how it reaches the database")
+                .tag("outcome", "coalesced")
+                .register(meterRegistry);
+        activityQueued = Counter.builder("sessions.activity")
+                .description("Session activity by how it reaches the database")
+                .tag("outcome", "queued")
+                .register(meterRegistry);
+        activityWritten = Counter.builder("sessions.activity.rows")
+                .description("Rows updated by flushes of session activity")
+                .register(meterRegistry);
+    }
+
+    /**
+     *  @param sessionUuid session UUID
+     *  @return session, null when there is none
+     */
+    public TokenStore findBySession(String sessionUuid) {
+        Session session = get(userIdsBySession.get(sessionUuid));
+        if (session != null && sessionUuid.equals(session.sessionUuid)) {
+            return session.toTokenStore();
+        }
+        return load(tokenStoreRepository.findBySession(sessionUuid));
+    }
+
+    /**
+     *  @param mfaToken MFA access token of the session
+     *  @return session, null when there is none
+     */
+    public TokenStore findByToken(String mfaToken) {
+        String fingerprint = TokenFingerprint.of(mfaToken);
+        Session session = get(userIdsByToken.get(fingerprint));
+        if (session != null && mfaToken.equals(session.mfaToken)) {
+            return session.toTokenStore();
+        }
+        TokenStore tokenStore = tokenStoreRepository.findByTokenHash(fingerprint);
+        return tokenStore != null && mfaToken.equals(tokenStore.getMfaToken()) ? load(tokenStore) : null;
+    }
+
+    /**
+     *  Create or change a session, writing it to the database right away.
+     *  @param tokenStore session
+     */
+    public void save(TokenStore tokenStore) {
+        Date pending = pendingLastActive.remove(tokenStore.getUserId());
+        if (pending != null && (tokenStore.getLastActiveDateTime() == null || pending.after(tokenStore.getLastActiveDateTime()))) {
+            tokenStore.setLastActiveDateTime(pending);
+        }
+        tokenStoreRepository.save(tokenStore);
+        put(new Session(tokenStore));
+    }
+
+    /**
+     *  Extend a session unless it has expired, as one atomic step, so concurrent heartbeats cannot interleave.
+     *  A cached session is checked and extended in memory. Otherwise the row is checked and extended by one conditional
+     *  UPDATE and then cached. The database is updated by the next flush, once the activity has moved
+     *  persistGranularityInSec past what was last written.
+     *  @param sessionUuid       session UUID
+     *  @param now               time of the activity
+     *  @param inactiveTimeInSec how long a session may go without activity
+     *  @return false when there is no such session or it has expired
+     */
+    public boolean extend(String sessionUuid, Date now, long inactiveTimeInSec) {
+        Date activeSince = new Date(now.getTime() - inactiveTimeInSec * 1000);
+        Session session = get(userIdsBySession.get(sessionUuid));
+        if (session == null || !sessionUuid.equals(session.sessionUuid)) {
+            boolean extended = tokenStoreRepository.extendSession(sessionUuid, now, activeSince) > 0;
+            // Also applies activity of an evicted session that has not been flushed yet
+            TokenStore tokenStore = findBySession(sessionUuid);
+            if (tokenStore == null) {
+                return false;
+            }
+            session = sessions.getIfPresent(tokenStore.getUserId());
+            if (extended || session == null) {
+                return extended;
+            }
+        }
+        // Extend only while the session is still the cached one, so an expired or replaced session is never reported
+        // as extended. Returning the entry makes Caffeine reschedule it from the new lastActiveDateTime.
+        Session candidate = session;
+        boolean[] moved = new boolean[1];
+        sessions.asMap().computeIfPresent(candidate.userId, (userId, cached) -> {
+            moved[0] = cached == candidate && moveLastActive(cached, now, activeSince);
+            return cached;
+        });
+        if (!moved[0]) {
+            return false;
+        }
+        Date persisted = session.persistedLastActiveDateTime;
+        if (persisted != null && now.getTime() - persisted.getTime() < persistGranularityInSec * 1000) {
+            activityCoalesced.increment();
+            return true;
+        }
+        session.persistedLastActiveDateTime = now;
+        pendingLastActive.put(session.userId, now);
+        activityQueued.increment();
+        return true;
+    }
+
+    /**
+     *  Delete a session from the database and the cache.
+     *  @param userId user ID of the session
+     */
+    public void delete(Integer userId) {
+        evict(Collections.singletonList(userId));
+        tokenStoreRepository.deleteById(userId);
+    }
+
+    /**
+     *  Delete an expired session from the database, unless it has been active or replaced since it expired.
+     *  @param tokenStore session as it was when it expired
+     */
+    public void deleteExpired(TokenStore tokenStore) {
+        if (tokenStore.getLastActiveDateTime() == null) {
+            return;
+        }
+        Date activeAfter = new Date(tokenStore.getLastActiveDateTime().getTime() + 1);
+        List<Integer> deleted = tokenStoreRepository.deleteIdle(Collections.singletonList(tokenStore.getUserId()), activeAfter);
+        if (!deleted.isEmpty()) {
+            pendingLastActive.remove(tokenStore.getUserId());
+        }
+    }
+
+    /**
+     *  Whether a session has activity since a time that the database may not show yet,
+     *  either in the cached session or waiting for the next flush.
+     *  @param userId user ID of the session
+     *  @param since  time to compare with
+     *  @return true when the session was active at or after since
+     */
+    public boolean isActiveSince(Integer userId, Date since) {
+        Date pending = pendingLastActive.get(userId);
+        if (pending != null && !pending.before(since)) {
+            return true;
+        }
+        Session session = sessions.getIfPresent(userId);
+        Date lastActive = session == null ? null : session.lastActiveDateTime.get();
+        return lastActive != null && !lastActive.before(since);
+    }
+
+    /**
+     *  Drop sessions already deleted from the database from the cache.
+     *  @param userIds user IDs of the sessions
+     */
+    public void evict(Collection<Integer> userIds) {
+        for (Integer userId : userIds) {
+            pendingLastActive.remove(userId);
+            Session session = sessions.asMap().remove(userId);
+            if (session != null) {
+                unindex(session);
+            }
+        }
+    }
+
+    /**
+     *  Write pending lastActiveDateTime updates to the database.
+     */
+    @Scheduled(fixedDelayString = "${sessionCache.flushIntervalInMs:5000}")
+    @PreDestroy
+    public void flush() {
+        if (pendingLastActive.isEmpty()) {
+            return;
+        }
+        Map<Integer, Date> pending = new ConcurrentHashMap<>();
+        for (Integer userId : new ArrayList<>(pendingLastActive.keySet())) {
+            Date lastActive = pendingLastActive.remove(userId);
+            if (lastActive != null) {
+                pending.put(userId, lastActive);
+            }
+        }
+        try {
+            activityWritten.increment(tokenStoreRepository.updateLastActive(pending));
+        } catch (RuntimeException ex) {
+            logger.error("Writing session activity failed, retrying with the next flush : ", ex);
+            for (Map.Entry<Integer, Date> entry : pending.entrySet()) {
+                pendingLastActive.merge(entry.getKey(), entry.getValue(), (newer, older) -> newer.after(older) ? newer : older);
+            }
+        }
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        if (!event.hasChanged("sessionTimeout")) {
+            return;
+        }
+        for (Session session : sessions.asMap().values()) {
+            expiration.setExpiresAfter(session.userId, remainingNanos(session.lastActiveDateTime.get()), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private static boolean moveLastActive(Session session, Date now, Date activeSince) {
+        Date lastActive;
+        do {
+            lastActive = session.lastActiveDateTime.get();
+            if (lastActive == null || lastActive.before(activeSince)) {
+                return false;
+            }
+        } while (!session.lastActiveDateTime.compareAndSet(lastActive, now));
+        return true;
+    }
+
+    private Session get(Integer userId) {
+        return userId == null ? null : sessions.getIfPresent(userId);
+    }
+
+    private TokenStore load(TokenStore tokenStore) {
+        if (tokenStore == null) {
+            return null;
+        }
+        // Activity recorded before the session was evicted may not have been flushed yet
+        Date pending = pendingLastActive.get(tokenStore.getUserId());
+        if (pending != null) {
+            tokenStore.setLastActiveDateTime(pending);
+        }
+        // An expired session is left to the caller and the SessionReaper rather than cached and expired right away
+        if (remainingNanos(tokenStore.getLastActiveDateTime()) > 0) {
+            put(new Session(tokenStore));
+        }
+        return tokenStore;
+    }
+
+    // Time left until a session last active at lastActive expires, on the clock of AuthService.getCurrentUtcTime()
+    private long remainingNanos(Date lastActive) {
+        if (lastActive == null) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long utcNow = now - TimeZone.getDefault().getOffset(now);
+        long deadline = lastActive.getTime() + settingsService.getSessionInactiveTimeInSec() * 1000;
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, deadline - utcNow));
+    }
+
+    private void put(Session session) {
+        Session previous = sessions.asMap().put(session.userId, session);
+        if (previous != null) {
+            unindex(previous);
+        }
+        userIdsBySession.put(session.sessionUuid, session.userId);
+        if (session.tokenFingerprint != null) {
+            userIdsByToken.put(session.tokenFingerprint, session.userId);
+        }
+    }
+
+    private void unindex(Session session) {
+        userIdsBySession.remove(session.sessionUuid, session.userId);
+        if (session.tokenFingerprint != null) {
+            userIdsByToken.remove(session.tokenFingerprint, session.userId);
+        }
+    }
+
+    private static final class Session {
+        private final Integer userId;
+        private final String sessionUuid;
+        private final String mfaToken;
+        private final String tokenFingerprint;
+        private final AtomicReference<Date> lastActiveDateTime;
+        private volatile Date persistedLastActiveDateTime;
+
+        private Session(TokenStore tokenStore) {
+            this.userId = tokenStore.getUserId();
+            this.sessionUuid = tokenStore.getSessionUuid();
+            this.mfaToken = tokenStore.getMfaToken();
+            this.tokenFingerprint = mfaToken == null || mfaToken.isEmpty() ? null : TokenFingerprint.of(mfaToken);
+            this.lastActiveDateTime = new AtomicReference<>(tokenStore.getLastActiveDateTime());
+            this.persistedLastActiveDateTime = tokenStore.getLastActiveDateTime();
+        }
+
+        // A copy, so callers cannot change the cached session behind its back
+        private TokenStore toTokenStore() {
+            return new TokenStore(userId, sessionUuid, mfaToken, lastActiveDateTime.get());
+        }
+    }
+}
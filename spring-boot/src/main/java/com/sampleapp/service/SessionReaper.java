@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sampleapp.entity.TokenStore;
+import com.sampleapp.repos.TokenStoreRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+
+/**
+ *  Deletes flow3 sessions idle beyond the session timeout in bounded batches, so abandoned sessions do not pile up.
+ *  Rows are found through the last_active_date_time index. As the database may be behind on activity by up to
+ *  sessionCache.persistGranularityInSec, only rows idle that much longer are candidates, and candidates with newer
+ *  activity still in the SessionCache are kept. Deletes are conditional on the row still being idle.
+ *  Optionally ends the tenant session of every reaped session that holds an MFA token, like AuthService.onSessionExpired
+ *  does for sessions expired from the cache, with at most maxConcurrentLogouts tenant logouts in flight.
+ */
+@Service
+public class SessionReaper {
+
+    private final Logger logger = LoggerFactory.getLogger(SessionReaper.class);
+
+    @Autowired
+    private TokenStoreRepository tokenStoreRepository;
+
+    @Autowired
+    private SessionCache sessionCache;
+
+    @Autowired
+    private AuthService authService;
+
+    @Autowired
+    private SettingsService settingsService;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${sessionReaper.enabled:true}")
+    private boolean enabled;
+
+    @Value("${sessionReaper.batchSize:500}")
+    private int batchSize;
+
+    @Value("${sessionReaper.maxBatchesPerRun:20}")
+    private int maxBatchesPerRun;
+
+    // Fan out /Security/Logout for reaped sessions that still hold an MFA token
+    @Value("${sessionReaper.tenantLogout:true}")
+    private boolean tenantLogout;
+
+    @Value("${sessionReaper.maxConcurrentLogouts:16}")
+    private int maxConcurrentLogouts;
+
+    @Value("${sessionCache.persistGranularityInSec:30}")
+    private long persistGranularityInSec;
+
+    private Counter reaped;
+
+    private Counter skipped;
+
+    private Timer duration;
+
+    private Semaphore logouts;
+
+    @PostConstruct
+    void initMetrics() {
+        logouts = new Semaphore(maxConcurrentLogouts);
+        reaped = Counter.builder("sessions.reaped")
+                .description("Idle sessions deleted by the session reaper")
+                .register(meterRegistry);
+        skipped = Counter.builder("sessions.reaper.skipped")
+                .description("Reaper candidates kept for activity not written to the database yet")
+                .register(meterRegistry);
+        duration = Timer.builder("sessions.reaper.duration")
+                .description("Time taken by a run of the session reaper")
+                .register(meterRegistry);
+    }
+
+    /**
+     *  Delete sessions idle beyond the session timeout, at most maxBatchesPerRun batches of batchSize per run.
+     */
+    @Scheduled(fixedDelayString = "${sessionReaper.intervalInMs:60000}", initialDelayString = "${sessionReaper.intervalInMs:60000}")
+    public void reap() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            int count = duration.recordCallable(this::reapIdleSessions);
+            if (count > 0) {
+                logger.info("Reaped {} idle sessions", count);
+            }
+        } catch (Exception ex) {
+            logger.error("Exception at reap() : ", ex);
+        }
+    }
+
+    private int reapIdleSessions() throws Exception {
+        Date activeSince = new Date(AuthService.getCurrentUtcTime().getTime() - settingsService.getSessionInactiveTimeInSec() * 1000);
+        Date cutoff = new Date(activeSince.getTime() - persistGranularityInSec * 1000);
+        int total = 0;
+        for (int batch = 0; batch < maxBatchesPerRun; batch++) {
+            List<TokenStore> candidates = tokenStoreRepository.findIdleSince(cutoff, PageRequest.of(0, batchSize));
+            Map<Integer, String> mfaTokens = new HashMap<>();
+            List<Integer> userIds = new ArrayList<>(candidates.size());
+            for (TokenStore candidate : candidates) {
+                if (sessionCache.isActiveSince(candidate.getUserId(), activeSince)) {
+                    skipped.increment();
+                    continue;
+                }
+                userIds.add(candidate.getUserId());
+                mfaTokens.put(candidate.getUserId(), candidate.getMfaToken());
+            }
+            List<Integer> deleted = tokenStoreRepository.deleteIdle(userIds, cutoff);
+            sessionCache.evict(deleted);
+            reaped.increment(deleted.size());
+            total += deleted.size();
+            if (tenantLogout) {
+                for (Integer userId : deleted) {
+                    logoutTenantSession(mfaTokens.get(userId));
+                }
+            }
+            // Kept candidates come back in the next batch until the flush writes their activity, so stop for this run
+            if (candidates.size() < batchSize || deleted.isEmpty()) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    // Waits while maxConcurrentLogouts logouts are in flight, so a large run does not flood the tenant
+    private void logoutTenantSession(String mfaToken) throws InterruptedException {
+        if (mfaToken == null || mfaToken.isEmpty()) {
+            return;
+        }
+        logouts.acquire();
+        CompletableFuture<ResponseEntity<JsonNode>> logout;
+        try {
+            logout = authService.logoutTenantSession(mfaToken);
+        } catch (RuntimeException ex) {
+            logouts.release();
+            throw ex;
+        }
+        logout.whenComplete((result, ex) -> {
+            logouts.release();
+            if (ex != null) {
+                logger.warn("Ending the tenant session of a reaped session failed : " + ex.getMessage());
+            }
+            meterRegistry.counter("sessions.reaper.logouts", "outcome", ex == null ? "success" : "failure").increment();
+        });
+    }
+}
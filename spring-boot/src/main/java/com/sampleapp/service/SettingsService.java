@@ -23,16 +23,21 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.io.File;
+import java.util.concurrent.locks.ReentrantLock;
 
 import com.cyberark.client.Authentication;
 import com.cyberark.entities.AuthResponse;
 import com.cyberark.requestBuilders.AuthRequest;
 import com.sampleapp.entity.Response;
+import com.sampleapp.entity.SettingsChangedEvent;
 import com.sampleapp.entity.UISettings;
+import com.sampleapp.utils.Json;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -40,7 +45,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.http.HttpHeaders;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 @Service
 public class SettingsService {
@@ -50,11 +54,21 @@ public class SettingsService {
 	@LoadBalanced
 	private final RestTemplate restTemplate;
 
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	@Autowired
+	private TenantSdkClients sdkClients;
+
 	Logger logger = LoggerFactory.getLogger(SettingsService.class);
-	private JsonNode settings;
+	// Replaced as a whole on update, so readers always see one consistent version
+	private volatile JsonNode settings;
 
-	public SettingsService(RestTemplateBuilder builder) throws Exception {
-		this.restTemplate = builder.build();
+	// Serializes file write and swap; a lock rather than synchronized so virtual threads are not pinned while writing
+	private final ReentrantLock updateLock = new ReentrantLock();
+
+	public SettingsService(@Qualifier("tenantRestTemplate") RestTemplate restTemplate) throws Exception {
+		this.restTemplate = restTemplate;
 		LoadUserSettings();
 	}
 
@@ -100,10 +114,19 @@ public class SettingsService {
 				if (!isSysAdmin)
 					throw new Exception("You are not authorized to access settings. You need to be a system administrator in CyberArk Identity.");
 			}
-			BufferedWriter writer = Files.newBufferedWriter(Paths.get(SETTINGS_FILE_PATH));
-			writer.write((new ObjectMapper()).writeValueAsString(body));
-			writer.close();
-			settings = body.deepCopy();
+			JsonNode previousSettings;
+			JsonNode currentSettings = body.deepCopy();
+			updateLock.lock();
+			try {
+				BufferedWriter writer = Files.newBufferedWriter(Paths.get(SETTINGS_FILE_PATH));
+				writer.write(Json.writeValueAsString(body));
+				writer.close();
+				previousSettings = settings;
+				settings = currentSettings;
+			} finally {
+				updateLock.unlock();
+			}
+			eventPublisher.publishEvent(new SettingsChangedEvent(this, previousSettings, currentSettings));
 			response.Result = "Settings updated successfully";
 			return new ResponseEntity(response, HttpStatus.OK);
 		} catch (Exception e) {
@@ -118,8 +141,7 @@ public class SettingsService {
 	 * @return JsonNode as settings
 	 */
 	public UISettings getUISettings() throws Exception {
-		ObjectMapper mapper = new ObjectMapper();
-		return mapper.treeToValue(settings, UISettings.class);
+		return Json.UI_SETTINGS_READER.readValue(settings);
 	}
 
 	public ResponseEntity<JsonNode> getSettings(String uuid, String token) {
@@ -155,12 +177,12 @@ public class SettingsService {
 			throw new IOException("Error creating new file: " + file.getAbsolutePath());
 		}
 		BufferedReader reader = new BufferedReader(new FileReader(file));
-		settings = (new ObjectMapper()).readTree(reader);
+		settings = Json.readTree(reader);
 	}
 
 	public boolean isSysAdmin(String uuid, String token) {
 		try {
-			Authentication auth = new Authentication(this.getTenantURL());
+			Authentication auth = sdkClients.getAuthentication(this.getTenantURL());
 			AuthResponse response = auth.isSysAdmin(token, uuid).execute();
 			JsonNode arr = response.getResult().get("Results");
 			for (JsonNode jsonNode : arr) {
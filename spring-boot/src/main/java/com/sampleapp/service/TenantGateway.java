@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ *  Non-blocking access to the tenant REST API (/Security, /CDirectoryService, /OAuth2 ...).
+ *  Callers chain on the returned future instead of parking a thread while the tenant answers.
+ *  The future completes on an HTTP client thread: steps that block (database, SDK calls) must hop to an executor,
+ *  and anything request scoped (RequestContextHolder attributes) must be read before the call is made.
+ */
+public interface TenantGateway {
+
+    /**
+     *  Send a request to the tenant.
+     *  @param url     Absolute tenant URL
+     *  @param method  HTTP method
+     *  @param request Headers and body; the body may be a JSON string, a form (MultiValueMap) or an object written as JSON
+     *  @return future completed with the JSON response, or exceptionally with the same HttpStatusCodeException /
+     *          ResourceAccessException RestTemplate.exchange would throw
+     */
+    CompletableFuture<ResponseEntity<JsonNode>> exchange(String url, HttpMethod method, HttpEntity<?> request);
+
+    /**
+     *  Send a request to the tenant and keep the response body as received, for passing it through unparsed.
+     *  @param url     Absolute tenant URL
+     *  @param method  HTTP method
+     *  @param request Headers and body, as for exchange
+     *  @return future completed with the raw response body, or exceptionally as for exchange
+     */
+    CompletableFuture<ResponseEntity<byte[]>> exchangeForBytes(String url, HttpMethod method, HttpEntity<?> request);
+}
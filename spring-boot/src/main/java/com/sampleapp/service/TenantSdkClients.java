@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.cyberark.client.Authentication;
+import com.cyberark.client.OAuthClient;
+import com.cyberark.client.OIDCClient;
+import com.cyberark.client.UserManagement;
+import com.cyberark.entities.UserInfo;
+import com.cyberark.requestBuilders.APIRequest;
+import com.cyberark.requestBuilders.AuthRequest;
+import com.cyberark.requestBuilders.BaseRequest;
+import com.cyberark.requestBuilders.GenericTokenRequest;
+import com.cyberark.requestBuilders.SignUpRequest;
+import com.cyberark.requestBuilders.TokenRequest;
+import com.cyberark.requestBuilders.VoidRequest;
+import com.cyberark.utils.Asserts;
+import com.cyberark.utils.Utils;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.utils.Json;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ *  Hands out CyberArk SDK clients that run on the shared tenant HTTP client.
+ *  The SDK clients send every request on their own OkHttpClient (own connection pool and dispatcher),
+ *  so the subclasses below build the same SDK requests on the shared client instead.
+ *  Authentication and UserManagement only hold the tenant URL, so one instance per tenant URL is reused.
+ */
+@Service
+public class TenantSdkClients {
+
+    private static final String NATIVE_CLIENT_HEADER = "X-IDAP-NATIVE-CLIENT";
+
+    @Autowired
+    @Qualifier("tenantHttpClient")
+    private OkHttpClient httpClient;
+
+    private final ConcurrentHashMap<String, Authentication> authentications = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<String, UserManagement> userManagements = new ConcurrentHashMap<>();
+
+    /**
+     *  @param tenantUrl Tenant URL
+     *  @return Authentication client for the tenant
+     */
+    public Authentication getAuthentication(String tenantUrl) {
+        return authentications.computeIfAbsent(tenantUrl, url -> new SharedAuthentication(url, httpClient));
+    }
+
+    /**
+     *  @param tenantUrl Tenant URL
+     *  @return UserManagement client for the tenant
+     */
+    public UserManagement getUserManagement(String tenantUrl) {
+        return userManagements.computeIfAbsent(tenantUrl, url -> new SharedUserManagement(url, httpClient));
+    }
+
+    /**
+     *  @param tenantUrl    Tenant URL
+     *  @param appId        OAuth Application ID
+     *  @param clientId     Client ID
+     *  @param clientSecret Client secret, null for public clients
+     *  @return OAuthClient running on the shared tenant HTTP client
+     *  @throws IOException when the client cannot be built
+     */
+    public OAuthClient newOAuthClient(String tenantUrl, String appId, String clientId, char[] clientSecret) throws IOException {
+        return new SharedOAuthClient(tenantUrl, appId, clientId, secret(clientSecret), httpClient);
+    }
+
+    /**
+     *  @param tenantUrl    Tenant URL
+     *  @param appId        OIDC Application ID
+     *  @param clientId     Client ID
+     *  @param clientSecret Client secret, null for public clients
+     *  @return OIDCClient running on the shared tenant HTTP client
+     *  @throws IOException when the client cannot be built
+     */
+    public OIDCClient newOIDCClient(String tenantUrl, String appId, String clientId, char[] clientSecret) throws IOException {
+        return new SharedOIDCClient(tenantUrl, appId, clientId, secret(clientSecret), httpClient);
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        authentications.clear();
+        userManagements.clear();
+    }
+
+    // The SDK's three argument constructors use an empty secret for public clients.
+    private static String secret(char[] clientSecret) {
+        return clientSecret == null ? "" : String.valueOf(clientSecret);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> attributes(String json) throws IOException {
+        return Json.mapper().readValue(json, HashMap.class);
+    }
+
+    static final class SharedAuthentication extends Authentication {
+
+        private final OkHttpClient client;
+
+        private final Utils utils;
+
+        SharedAuthentication(String tenantUrl, OkHttpClient client) {
+            super(tenantUrl);
+            this.client = client;
+            this.utils = new Utils(tenantUrl);
+        }
+
+        @Override
+        public AuthRequest getTotpQr(String token) {
+            Asserts.assertNotNull(token, "Bearer Token");
+            return nativeRequest(utils.buildMobileAuthApiEndPoint("GetUserThirdPartyOtp"), token)
+                    .setAdditionalParameter("DeviceId", "null");
+        }
+
+        @Override
+        public AuthRequest validateTotp(String token, String json) throws IOException {
+            Asserts.assertNotNull(token, "Bearer Token");
+            Map<String, Object> attributes = attributes(json);
+            return nativeRequest(utils.buildMobileAuthApiEndPoint("ValidateAndSetUserThirdPartyOtp"), token)
+                    .setAdditionalAttributes(attributes);
+        }
+
+        @Override
+        public AuthRequest isSysAdmin(String token, String userId) {
+            Asserts.assertNotNull(token, "Bearer Token");
+            Asserts.assertNotNull(userId, "UserId");
+            return nativeRequest(utils.buildUserMgmtApiEndPoint("GetUsersRolesAndAdministrativeRights"), token)
+                    .setAdditionalParameter("Id", userId);
+        }
+
+        private AuthRequest nativeRequest(String url, String token) {
+            return new AuthRequest(client, url, "POST")
+                    .setHeader("Authorization", "Bearer " + token)
+                    .setHeader(NATIVE_CLIENT_HEADER, "true");
+        }
+    }
+
+    static final class SharedUserManagement extends UserManagement {
+
+        private final OkHttpClient client;
+
+        private final Utils utils;
+
+        SharedUserManagement(String tenantUrl, OkHttpClient client) {
+            super(tenantUrl);
+            this.client = client;
+            this.utils = new Utils(tenantUrl);
+        }
+
+        @Override
+        public SignUpRequest signUpWithBearerToken(String token) {
+            Asserts.assertNotNull(token, "Bearer Token");
+            return nativeRequest("Signup")
+                    .setHeader("Authorization", "Bearer " + token);
+        }
+
+        @Override
+        public SignUpRequest signUpWithCaptcha(String captcha) {
+            Asserts.assertNotNull(captcha, "ReCaptcha Token");
+            return nativeRequest("Signup")
+                    .setReCaptchaToken(captcha);
+        }
+
+        @Override
+        public SignUpRequest updateProfile(String token, String json) throws IOException {
+            Asserts.assertNotNull(token, "Bearer Token");
+            Map<String, Object> attributes = attributes(json);
+            return nativeRequest("UpdateProfile")
+                    .setHeader("Authorization", "Bearer " + token)
+                    .setAdditionalAttributes(attributes);
+        }
+
+        private SignUpRequest nativeRequest(String apiName) {
+            return new SignUpRequest(client, utils.buildUserApiEndPoint(apiName), "POST")
+                    .setHeader(NATIVE_CLIENT_HEADER, "true");
+        }
+    }
+
+    /**
+     *  Builds the OAuth endpoint requests shared by OAuthClient and OIDCClient, which the SDK keeps in separate classes.
+     */
+    static final class OAuthRequests {
+
+        private final OkHttpClient client;
+
+        private final Utils utils;
+
+        private final String applicationId;
+
+        private final String clientId;
+
+        private final String clientSecret;
+
+        OAuthRequests(String tenantUrl, String applicationId, String clientId, String clientSecret, OkHttpClient client) {
+            this.client = client;
+            this.utils = new Utils(tenantUrl);
+            this.applicationId = applicationId;
+            this.clientId = clientId;
+            this.clientSecret = clientSecret;
+        }
+
+        TokenRequest requestToken(String code, String redirectUri) {
+            Asserts.assertNotNull(code, "code");
+            Asserts.assertNotNull(redirectUri, "redirect uri");
+            return clientCredentials(tokenRequest())
+                    .setAuthorizationCode(code)
+                    .setRedirectURI(redirectUri);
+        }
+
+        TokenRequest requestTokenWithClientCreds() {
+            return clientCredentials(tokenRequest());
+        }
+
+        TokenRequest requestTokenWithPassword(String userName, String password) {
+            Asserts.assertNotNull(userName, "userName");
+            Asserts.assertNotNull(password, "password");
+            return tokenRequest()
+                    .addHeader("Authorization", basicAuthorization())
+                    .setUserName(userName)
+                    .setPassword(password);
+        }
+
+        VoidRequest revokeToken(String token) {
+            Asserts.assertNotNull(token, "access token");
+            return new VoidRequest(client, endpoint("Revoke"), "POST")
+                    .setClientId(clientId)
+                    .setClientSecret(clientSecret)
+                    .setAccessToken(token);
+        }
+
+        TokenRequest refreshToken(String refreshToken) {
+            Asserts.assertNotNull(refreshToken, "refresh token");
+            return clientCredentials(tokenRequest())
+                    .setGrantType("refresh_token")
+                    .setRefreshToken(refreshToken);
+        }
+
+        GenericTokenRequest<JsonNode> introspect(String token) {
+            Asserts.assertNotNull(token, "Access token");
+            GenericTokenRequest<JsonNode> request = new GenericTokenRequest<>(client, endpoint("Introspect"), "POST",
+                    new TypeReference<JsonNode>() { });
+            request.setAccessToken(token);
+            request.addHeader("Authorization", basicAuthorization());
+            return request;
+        }
+
+        APIRequest<UserInfo> userInfo(String token) {
+            Asserts.assertNotNull(token, "access token");
+            return new BaseRequest<>(client, endpoint("UserInfo"), "GET", new TypeReference<UserInfo>() { })
+                    .addHeader("Authorization", "Bearer " + token);
+        }
+
+        private TokenRequest tokenRequest() {
+            return new TokenRequest(client, endpoint("Token"), "POST");
+        }
+
+        private TokenRequest clientCredentials(TokenRequest request) {
+            return request.setClientId(clientId).setClientSecret(clientSecret);
+        }
+
+        private String endpoint(String apiName) {
+            return utils.buildOAuthApiEndPoint(apiName, applicationId);
+        }
+
+        private String basicAuthorization() {
+            String credentials = clientId + ":" + clientSecret;
+            return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    static final class SharedOAuthClient extends OAuthClient {
+
+        private final OAuthRequests requests;
+
+        SharedOAuthClient(String tenantUrl, String appId, String clientId, String clientSecret, OkHttpClient client) throws IOException {
+            super(tenantUrl, appId, clientId, clientSecret);
+            this.requests = new OAuthRequests(tenantUrl, appId, clientId, clientSecret, client);
+        }
+
+        @Override
+        public TokenRequest requestToken(String code, String redirectUri) { return requests.requestToken(code, redirectUri); }
+
+        @Override
+        public TokenRequest requestTokenWithClientCreds() { return requests.requestTokenWithClientCreds(); }
+
+        @Override
+        public TokenRequest requestTokenWithPassword(String userName, String password) {
+            return requests.requestTokenWithPassword(userName, password);
+        }
+
+        @Override
+        public VoidRequest revokeToken(String token) { return requests.revokeToken(token); }
+
+        @Override
+        public TokenRequest refreshToken(String refreshToken) { return requests.refreshToken(refreshToken); }
+
+        @Override
+        public GenericTokenRequest introspect(String token) { return requests.introspect(token); }
+    }
+
+    static final class SharedOIDCClient extends OIDCClient {
+
+        private final OAuthRequests requests;
+
+        SharedOIDCClient(String tenantUrl, String appId, String clientId, String clientSecret, OkHttpClient client) throws IOException {
+            super(tenantUrl, appId, clientId, clientSecret);
+            this.requests = new OAuthRequests(tenantUrl, appId, clientId, clientSecret, client);
+        }
+
+        @Override
+        public TokenRequest requestToken(String code, String redirectUri) { return requests.requestToken(code, redirectUri); }
+
+        @Override
+        public TokenRequest requestTokenWithClientCreds() { return requests.requestTokenWithClientCreds(); }
+
+        @Override
+        public TokenRequest requestTokenWithPassword(String userName, String password) {
+            return requests.requestTokenWithPassword(userName, password);
+        }
+
+        @Override
+        public VoidRequest revokeToken(String token) { return requests.revokeToken(token); }
+
+        @Override
+        public TokenRequest refreshToken(String refreshToken) { return requests.refreshToken(refreshToken); }
+
+        @Override
+        public GenericTokenRequest introspect(String token) { return requests.introspect(token); }
+
+        @Override
+        public APIRequest<UserInfo> userInfo(String token) { return requests.userInfo(token); }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.cyberark.entities.UserInfo;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.nimbusds.jwt.JWTParser;
+import com.sampleapp.entity.SettingsChangedEvent;
+import com.sampleapp.utils.TokenFingerprint;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *  Caches introspection and userinfo results per token, keyed by the SHA-256 fingerprint of the token.
+ *  An entry never outlives the exp of its token and is evicted when the token is revoked.
+ */
+@Service
+public class TokenResultCache {
+
+    @FunctionalInterface
+    public interface Loader<V> {
+        V load() throws IOException;
+    }
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${tokenResultCache.maxSize:10000}")
+    private long maxSize;
+
+    @Value("${tokenResultCache.maxTtlInSec:300}")
+    private long maxTtlInSec;
+
+    private Cache<String, ExpiringResult<JsonNode>> introspectionCache;
+
+    private Cache<String, ExpiringResult<UserInfo>> userInfoCache;
+
+    @PostConstruct
+    void initCaches() {
+        introspectionCache = newCache();
+        userInfoCache = newCache();
+        CaffeineCacheMetrics.monitor(meterRegistry, introspectionCache, "tokenIntrospection");
+        CaffeineCacheMetrics.monitor(meterRegistry, userInfoCache, "tokenUserInfo");
+    }
+
+    /**
+     *  Get the introspection result of a token, loading it when not cached.
+     *  @param token  access token
+     *  @param loader introspects the token
+     *  @return introspection result
+     */
+    public JsonNode getIntrospection(String token, Loader<JsonNode> loader) throws IOException {
+        String fingerprint = TokenFingerprint.of(token);
+        ExpiringResult<JsonNode> cached = introspectionCache.getIfPresent(fingerprint);
+        if (cached != null) {
+            return cached.value;
+        }
+        JsonNode result = loader.load();
+        JsonNode exp = result.get("exp");
+        long expiresAt = exp != null && exp.canConvertToLong() ? exp.asLong() * 1000 : getTokenExpiry(token);
+        put(introspectionCache, fingerprint, result, expiresAt);
+        return result;
+    }
+
+    /**
+     *  Get the userinfo of an access token, loading it when not cached.
+     *  @param accessToken access token
+     *  @param loader      calls the userinfo end point
+     *  @return userinfo of the token owner
+     */
+    public UserInfo getUserInfo(String accessToken, Loader<UserInfo> loader) throws IOException {
+        String fingerprint = TokenFingerprint.of(accessToken);
+        ExpiringResult<UserInfo> cached = userInfoCache.getIfPresent(fingerprint);
+        if (cached != null) {
+            return cached.value;
+        }
+        UserInfo userInfo = loader.load();
+        put(userInfoCache, fingerprint, userInfo, getTokenExpiry(accessToken));
+        return userInfo;
+    }
+
+    /**
+     *  Drop everything cached for a token, e.g. because it has been revoked.
+     *  @param token access or id token
+     */
+    public void evict(String token) {
+        String fingerprint = TokenFingerprint.of(token);
+        introspectionCache.invalidate(fingerprint);
+        userInfoCache.invalidate(fingerprint);
+    }
+
+    @EventListener
+    public void onSettingsChanged(SettingsChangedEvent event) {
+        introspectionCache.invalidateAll();
+        userInfoCache.invalidateAll();
+    }
+
+    private <V> void put(Cache<String, ExpiringResult<V>> cache, String fingerprint, V value, long tokenExpiresAt) {
+        long expiresAt = System.currentTimeMillis() + maxTtlInSec * 1000;
+        if (tokenExpiresAt > 0) {
+            expiresAt = Math.min(expiresAt, tokenExpiresAt);
+        }
+        if (expiresAt > System.currentTimeMillis()) {
+            cache.put(fingerprint, new ExpiringResult<>(value, expiresAt));
+        }
+    }
+
+    // exp claim of a JWT in epoch millis, 0 when the token is opaque or has no exp.
+    private static long getTokenExpiry(String token) {
+        try {
+            Date expiresAt = JWTParser.parse(token).getJWTClaimsSet().getExpirationTime();
+            return expiresAt == null ? 0 : expiresAt.getTime();
+        } catch (Exception ex) {
+            return 0;
+        }
+    }
+
+    private <V> Cache<String, ExpiringResult<V>> newCache() {
+        return Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new Expiry<String, ExpiringResult<V>>() {
+                    @Override
+                    public long expireAfterCreate(String key, ExpiringResult<V> result, long currentTime) {
+                        return TimeUnit.MILLISECONDS.toNanos(Math.max(0, result.expiresAt - System.currentTimeMillis()));
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, ExpiringResult<V> result, long currentTime, long currentDuration) {
+                        return expireAfterCreate(key, result, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, ExpiringResult<V> result, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+    }
+
+    private static final class ExpiringResult<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private ExpiringResult(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
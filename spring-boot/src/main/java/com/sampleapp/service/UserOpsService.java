@@ -18,20 +18,30 @@ package com.sampleapp.service;
 
 import com.sampleapp.entity.DBUser;
 import com.sampleapp.entity.Response;
+import com.sampleapp.entity.SettingsChangedEvent;
 import com.sampleapp.entity.TokenStore;
 import com.sampleapp.entity.User;
 import com.sampleapp.entity.VerifyTotpReq;
 import com.sampleapp.repos.UserRepository;
+import com.sampleapp.utils.Futures;
+import com.sampleapp.utils.Json;
 import com.cyberark.client.Authentication;
 import com.cyberark.client.UserManagement;
 import com.cyberark.entities.AuthResponse;
 import com.cyberark.entities.SignUpResponse;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
@@ -42,15 +52,19 @@ import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 
+import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class UserOpsService {
@@ -66,16 +80,86 @@ public class UserOpsService {
 	@Autowired
 	private UserService userService;
 
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private TenantSdkClients sdkClients;
+
+	@Autowired
+	private TenantGateway tenantGateway;
+
+	@Autowired
+	@Qualifier("sdkExecutor")
+	private Executor sdkExecutor;
+
 	@LoadBalanced
 	private final RestTemplate restTemplate;
 
-	public UserOpsService(RestTemplateBuilder builder) {
-		this.restTemplate = builder.build();
+	@Value("${tenantConfigCache.ttlInSec:900}")
+	private long tenantConfigTtlInSec;
+
+	@Value("${tenantConfigCache.refreshAfterInSec:300}")
+	private long tenantConfigRefreshAfterInSec;
+
+	@Value("${tenantConfigCache.notFoundTtlInSec:60}")
+	private long tenantConfigNotFoundTtlInSec;
+
+	// OIDC client ID -> default auth profile ID of the application, empty when the app does not enforce one.
+	// Loaded on sdkExecutor so that a miss does not block the request thread on the tenant calls.
+	private AsyncLoadingCache<String, Optional<String>> appAuthProfileCache;
+
+	// Auth profile ID -> auth profile name. A profile without a name is cached as well, for a shorter time.
+	private AsyncLoadingCache<String, Optional<String>> profileNameCache;
+
+	public UserOpsService(@Qualifier("tenantRestTemplate") RestTemplate restTemplate) {
+		this.restTemplate = restTemplate;
+	}
+
+	@PostConstruct
+	void initTenantConfigCaches() {
+		appAuthProfileCache = Caffeine.newBuilder()
+				.executor(sdkExecutor)
+				.maximumSize(100)
+				.expireAfterWrite(tenantConfigTtlInSec, TimeUnit.SECONDS)
+				.refreshAfterWrite(tenantConfigRefreshAfterInSec, TimeUnit.SECONDS)
+				.recordStats()
+				.buildAsync(clientId -> Optional.ofNullable(getAppDetails(userService.receiveOAuthTokenForClientCreds(), clientId)));
+		profileNameCache = Caffeine.newBuilder()
+				.executor(sdkExecutor)
+				.maximumSize(100)
+				.expireAfter(new Expiry<String, Optional<String>>() {
+					@Override
+					public long expireAfterCreate(String profileID, Optional<String> profileName, long currentTime) {
+						long ttlInSec = profileName.isPresent() ? tenantConfigTtlInSec : tenantConfigNotFoundTtlInSec;
+						return TimeUnit.SECONDS.toNanos(ttlInSec);
+					}
+
+					@Override
+					public long expireAfterUpdate(String profileID, Optional<String> profileName, long currentTime, long currentDuration) {
+						return expireAfterCreate(profileID, profileName, currentTime);
+					}
+
+					@Override
+					public long expireAfterRead(String profileID, Optional<String> profileName, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.refreshAfterWrite(tenantConfigRefreshAfterInSec, TimeUnit.SECONDS)
+				.recordStats()
+				.buildAsync(profileID -> Optional.ofNullable(getProfileName(userService.receiveOAuthTokenForClientCreds(), profileID)));
+		CaffeineCacheMetrics.monitor(meterRegistry, appAuthProfileCache.synchronous(), "appAuthProfile");
+		CaffeineCacheMetrics.monitor(meterRegistry, profileNameCache.synchronous(), "authProfileName");
+	}
+
+	@EventListener
+	public void onSettingsChanged(SettingsChangedEvent event) {
+		appAuthProfileCache.synchronous().invalidateAll();
+		profileNameCache.synchronous().invalidateAll();
 	}
 
 	private String getJson(User user) throws JsonProcessingException {
-		ObjectMapper mapper = new ObjectMapper();
-		return mapper.writeValueAsString(user);
+		return Json.USER_WRITER.writeValueAsString(user);
 	}
 
 	protected static HttpHeaders setHeaders(String token) {
@@ -92,107 +176,114 @@ public class UserOpsService {
 	}
 
 	// This method updates user information in Idaptive Cloud directory.
-	public ResponseEntity<JsonNode> updateUser(String token, String uuid, User user, Boolean enableMFAWidgetFlow)
+	public CompletableFuture<ResponseEntity<JsonNode>> updateUser(String token, String uuid, User user, Boolean enableMFAWidgetFlow)
 			throws IOException {
 
-		Response response;
-
 		user.setUuid(uuid);
 		String userJson = getJson(user);
-		UserManagement userManagement = new UserManagement(settingsService.getTenantURL());
-		SignUpResponse signUpResponse = userManagement.updateProfile(token, userJson).execute();
-
-		try {
-			ObjectMapper mapper = new ObjectMapper();
-			JsonNode node = mapper.convertValue(signUpResponse, JsonNode.class);
-
-			ObjectNode objNode = (ObjectNode) node;
-			objNode.put("UserName", user.getName());
-
-			if (enableMFAWidgetFlow.booleanValue()) {
-				TokenStore tokenStore = (TokenStore) RequestContextHolder.currentRequestAttributes()
-						.getAttribute("UserTokenStore", RequestAttributes.SCOPE_REQUEST);
-				DBUser dbUser = repo.getById(tokenStore.getUserId());
-				dbUser.setName(user.getName());
-				dbUser.setDisplayName(user.getDisplayName());
-				dbUser.setMail(user.getMail());
-				dbUser.setMobileNumber((user.getMobileNumber()));
-				repo.save(dbUser);
+		// Read before the hop to the SDK executor, the request context is not available there.
+		TokenStore tokenStore = enableMFAWidgetFlow.booleanValue()
+				? (TokenStore) RequestContextHolder.currentRequestAttributes().getAttribute("UserTokenStore", RequestAttributes.SCOPE_REQUEST)
+				: null;
+		UserManagement userManagement = sdkClients.getUserManagement(settingsService.getTenantURL());
+		return Futures.supplyAsync(() -> {
+			SignUpResponse signUpResponse = userManagement.updateProfile(token, userJson).execute();
+
+			try {
+				JsonNode node = Json.valueToTree(signUpResponse);
+
+				ObjectNode objNode = (ObjectNode) node;
+				objNode.put("UserName", user.getName());
+
+				if (enableMFAWidgetFlow.booleanValue()) {
+					DBUser dbUser = repo.getById(tokenStore.getUserId());
+					dbUser.setName(user.getName());
+					dbUser.setDisplayName(user.getDisplayName());
+					dbUser.setMail(user.getMail());
+					dbUser.setMobileNumber((user.getMobileNumber()));
+					repo.save(dbUser);
+				}
+				return new ResponseEntity(objNode, HttpStatus.OK);
+			} catch (NullPointerException | RestClientException e) {
+				logger.error("updateUser Exception occurred : ", e);
+				return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
 			}
-			return new ResponseEntity(objNode, HttpStatus.OK);
-		} catch (NullPointerException | RestClientException e) {
-			logger.error("updateUser Exception occurred : ", e);
-			return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+		}, sdkExecutor);
 	}
 
-	public ResponseEntity<JsonNode> getTotpQR(String token) {
-		try {
-			Authentication authentication = new Authentication(settingsService.getTenantURL());
-			AuthResponse authResponse = authentication.getTotpQr(token).execute();
-			return new ResponseEntity(authResponse, HttpStatus.OK);
-		} catch (Exception e) {
-			logger.error("getTotpQR Exception occurred : ", e);
-			return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+	public CompletableFuture<ResponseEntity<JsonNode>> getTotpQR(String token) {
+		String tenantUrl = settingsService.getTenantURL();
+		return Futures.supplyAsync(() -> {
+			try {
+				Authentication authentication = sdkClients.getAuthentication(tenantUrl);
+				AuthResponse authResponse = authentication.getTotpQr(token).execute();
+				return new ResponseEntity(authResponse, HttpStatus.OK);
+			} catch (Exception e) {
+				logger.error("getTotpQR Exception occurred : ", e);
+				return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+			}
+		}, sdkExecutor);
 	}
 
 	// Get user information using specified UUID
-	public ResponseEntity<JsonNode> getUser(String uuid, String token) {
-		try {
-			HttpHeaders headers = prepareForRequest(token);
-			HttpEntity<String> request = new HttpEntity<>("{\"ID\":\"" + uuid + "\"}", headers);
-			String url = settingsService.getTenantURL() + "/CDirectoryService/GetUser";
-			JsonNode response = restTemplate.exchange(url, HttpMethod.POST, request, JsonNode.class).getBody();
-			return new ResponseEntity(response, HttpStatus.OK);
-		} catch (Exception ex) {
-			logger.error("getUser Exception occurred : ", ex);
-			return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+	public CompletableFuture<ResponseEntity<JsonNode>> getUser(String uuid, String token) {
+		HttpHeaders headers = prepareForRequest(token);
+		HttpEntity<String> request = new HttpEntity<>("{\"ID\":\"" + uuid + "\"}", headers);
+		String url = settingsService.getTenantURL() + "/CDirectoryService/GetUser";
+		return tenantGateway.exchange(url, HttpMethod.POST, request)
+				.thenApply(response -> new ResponseEntity<>(response.getBody(), HttpStatus.OK))
+				.exceptionally(ex -> internalServerError("getUser", ex));
 	}
 
-	public ResponseEntity<JsonNode> verifyTotp(String token, VerifyTotpReq req) {
-		try {
-			String verifyTotpJson = req.toJSONString();
-			Authentication authentication = new Authentication(settingsService.getTenantURL());
-			AuthResponse authResponse = authentication.validateTotp(token, verifyTotpJson).execute();
-			return new ResponseEntity(authResponse, HttpStatus.OK);
-		} catch (Exception e) {
-			logger.error("verifyTotp Exception occurred : ", e);
-			return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+	public CompletableFuture<ResponseEntity<JsonNode>> verifyTotp(String token, VerifyTotpReq req) {
+		String tenantUrl = settingsService.getTenantURL();
+		return Futures.supplyAsync(() -> {
+			try {
+				String verifyTotpJson = req.toJSONString();
+				Authentication authentication = sdkClients.getAuthentication(tenantUrl);
+				AuthResponse authResponse = authentication.validateTotp(token, verifyTotpJson).execute();
+				return new ResponseEntity(authResponse, HttpStatus.OK);
+			} catch (Exception e) {
+				logger.error("verifyTotp Exception occurred : ", e);
+				return new ResponseEntity(new Response(false, e.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
+			}
+		}, sdkExecutor);
 	}
 
-	public ResponseEntity<JsonNode> getChallengeID(String userCookie) {
-		try {
-			Response response = new Response();
-
-			String oauthToken = userService.receiveOAuthTokenForClientCreds();
-			String defaultAuthProfileID = getAppDetails(oauthToken);
-			if (defaultAuthProfileID == null)
-				return new ResponseEntity(response, HttpStatus.OK);
-
-			String profileName = getProfileName(oauthToken, defaultAuthProfileID);
-			String challengeID = challengeUser(userCookie, profileName);
-
-			if (challengeID == null)
-				return new ResponseEntity(response, HttpStatus.OK);
+	public CompletableFuture<ResponseEntity<JsonNode>> getChallengeID(String userCookie) {
+		Response response = new Response();
+		return appAuthProfileCache.get(settingsService.getOIDCClientID())
+				.thenCompose(defaultAuthProfileID -> defaultAuthProfileID.isPresent()
+						? challengeDefaultProfile(userCookie, defaultAuthProfileID.get())
+						: CompletableFuture.completedFuture((String) null))
+				.thenApply(challengeID -> {
+					if (challengeID != null) {
+						response.Result = challengeID;
+					}
+					ResponseEntity<JsonNode> ok = new ResponseEntity(response, HttpStatus.OK);
+					return ok;
+				}).exceptionally(ex -> internalServerError("getChallengeID", ex));
+	}
 
-			response.Result = challengeID;
-			return new ResponseEntity(response, HttpStatus.OK);
+	private CompletableFuture<String> challengeDefaultProfile(String userCookie, String profileID) {
+		return profileNameCache.get(profileID)
+				.thenApply(Futures.unchecked(profileName -> profileName
+						.orElseThrow(() -> new Exception("Auth profile " + profileID + " has no name"))))
+				.thenCompose(profileName -> challengeUser(userCookie, profileName));
+	}
 
-		} catch (Exception ex) {
-			logger.error("getChallengeID Exception occurred : ", ex);
-			return new ResponseEntity(new Response(false, ex.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
-		}
+	private ResponseEntity<JsonNode> internalServerError(String operation, Throwable ex) {
+		Throwable cause = Futures.unwrap(ex);
+		logger.error(operation + " Exception occurred : ", cause);
+		return new ResponseEntity(new Response(false, cause.getMessage()), HttpStatus.INTERNAL_SERVER_ERROR);
 	}
 
-	private String getAppDetails(String token) throws Exception {
+	private String getAppDetails(String token, String clientId) throws Exception {
 		HttpHeaders headers = prepareForRequest(token);
 
 		// Get OIDC App Details
 		HttpEntity<String> appDetailsRequest = new HttpEntity<>(
-				"{\"_RowKey\":\"" + settingsService.getOIDCClientID() + "\"}", headers);
+				"{\"_RowKey\":\"" + clientId + "\"}", headers);
 		String appDetailsUrl = settingsService.getTenantURL() + "/saasManage/GetApplication";
 		JsonNode appResponse = restTemplate.exchange(appDetailsUrl, HttpMethod.POST, appDetailsRequest, JsonNode.class)
 				.getBody();
@@ -220,27 +311,28 @@ public class UserOpsService {
 				.getBody();
 
 		if (response.get("success").asBoolean()) {
-			return response.get("Result").get("Name").asText();
+			JsonNode name = response.path("Result").path("Name");
+			return name.isTextual() ? name.asText() : null;
 		} else {
 			throw new Exception(response.get("Result").asText());
 		}
 	}
 
-	private String challengeUser(String userCookie, String profileName) throws Exception {
+	private CompletableFuture<String> challengeUser(String userCookie, String profileName) {
 		HttpHeaders headers = prepareForRequest(userCookie);
 
 		HttpEntity<String> challengeRequest = new HttpEntity<>("{\"profileName\":\"" + profileName + "\"}", headers);
 		String challengeUrl = settingsService.getTenantURL() + "/Security/ChallengeUser";
-		JsonNode response = restTemplate.exchange(challengeUrl, HttpMethod.POST, challengeRequest, JsonNode.class)
-				.getBody();
-
-		if (!response.get("success").asBoolean()) {
-			if (response.get("Result") != null) {
-				return response.get("Result").get("ChallengeId").asText();
-			} else {
-				throw new Exception(response.get("Message").asText());
+		return tenantGateway.exchange(challengeUrl, HttpMethod.POST, challengeRequest).thenApply(Futures.unchecked(challengeResponse -> {
+			JsonNode response = challengeResponse.getBody();
+			if (!response.get("success").asBoolean()) {
+				if (response.get("Result") != null) {
+					return response.get("Result").get("ChallengeId").asText();
+				} else {
+					throw new Exception(response.get("Message").asText());
+				}
 			}
-		}
-		return null;
+			return null;
+		}));
 	}
 }
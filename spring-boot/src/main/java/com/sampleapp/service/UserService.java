@@ -18,35 +18,44 @@ package com.sampleapp.service;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import com.cyberark.client.UserManagement;
 import com.cyberark.entities.SignUpResponse;
-import com.cyberark.entities.TokenHolder;
 import com.cyberark.requestBuilders.SignUpRequest;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.LoadingCache;
 import com.sampleapp.entity.AuthFlows;
-import com.sampleapp.entity.AuthorizationFlow;
-import com.sampleapp.entity.GrantType;
-import com.sampleapp.entity.TokenMetadataRequest;
 import com.sampleapp.entity.DBUser;
 import com.sampleapp.entity.MfaUserMapping;
 import com.sampleapp.entity.Response;
+import com.sampleapp.entity.SettingsChangedEvent;
 import com.sampleapp.exception.RoleNotFoundException;
 import com.sampleapp.repos.MfaUserMappingRepository;
 import com.sampleapp.repos.UserRepository;
+import com.sampleapp.utils.Futures;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.Example;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.TaskScheduler;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -54,8 +63,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.sampleapp.entity.User;
+import org.springframework.web.context.request.RequestAttributes;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
+import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 
 @Service
@@ -78,36 +89,101 @@ public class UserService {
 	@Autowired
 	public AuthFlows authFlows;
 
-	public UserService(RestTemplateBuilder builder) {
-		this.restTemplate = builder.build();
+	@Autowired
+	private ClientCredentialsTokenManager clientCredentialsTokenManager;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private TaskScheduler taskScheduler;
+
+	@Autowired
+	private TenantSdkClients sdkClients;
+
+	@Value("${roleUuidCache.ttlInSec:43200}")
+	private long roleUuidTtlInSec;
+
+	@Value("${roleUuidCache.notFoundTtlInSec:60}")
+	private long roleNotFoundTtlInSec;
+
+	// Role name -> role ID. A role missing in the tenant is cached as well, for a shorter time.
+	private LoadingCache<String, RoleLookup> roleUuidCache;
+
+	public UserService(@Qualifier("tenantRestTemplate") RestTemplate restTemplate) {
+		this.restTemplate = restTemplate;
 	}
 
-	public String receiveOAuthTokenForClientCreds() throws Exception {
-		TokenMetadataRequest metadataRequest = new TokenMetadataRequest();
-		metadataRequest.grantType = GrantType.client_credentials;
+	@PostConstruct
+	void initRoleUuidCache() {
+		roleUuidCache = Caffeine.newBuilder()
+				.maximumSize(100)
+				.expireAfter(new Expiry<String, RoleLookup>() {
+					@Override
+					public long expireAfterCreate(String roleName, RoleLookup lookup, long currentTime) {
+						long ttlInSec = lookup.isFound() ? roleUuidTtlInSec : roleNotFoundTtlInSec;
+						return TimeUnit.SECONDS.toNanos(ttlInSec);
+					}
+
+					@Override
+					public long expireAfterUpdate(String roleName, RoleLookup lookup, long currentTime, long currentDuration) {
+						return expireAfterCreate(roleName, lookup, currentTime);
+					}
+
+					@Override
+					public long expireAfterRead(String roleName, RoleLookup lookup, long currentTime, long currentDuration) {
+						return currentDuration;
+					}
+				})
+				.recordStats()
+				.build(this::queryRoleUuid);
+		CaffeineCacheMetrics.monitor(meterRegistry, roleUuidCache, "roleUuid");
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void onApplicationReady() {
+		taskScheduler.schedule(this::preloadRoleUuid, new Date());
+	}
+
+	@EventListener
+	public void onSettingsChanged(SettingsChangedEvent event) {
+		if (event.hasChanged("roleName") || event.hasChanged("tenantUrl")) {
+			roleUuidCache.invalidateAll();
+			taskScheduler.schedule(this::preloadRoleUuid, new Date());
+		}
+	}
 
-		TokenHolder tokenHolder = null;
+	private void preloadRoleUuid() {
 		try {
-			tokenHolder = this.authFlows.getEnumMap().get(AuthorizationFlow.OAUTH)
-					.getTokenSetWithClientCreds(metadataRequest);
+			if (settingsService.getTenantURL().isEmpty() || settingsService.getRoleName().isEmpty()) {
+				return;
+			}
+			roleUuidCache.get(settingsService.getRoleName());
+		} catch (Exception ex) {
+			logger.error("Exception occurred while preloading role uuid : ", ex);
+		}
+	}
+
+	public String receiveOAuthTokenForClientCreds() throws Exception {
+		try {
+			return this.clientCredentialsTokenManager.getAccessToken();
 		} catch (IOException e) {
 			logger.error("Error occurred while fetching access_token : ", e);
 			throw new Exception(e.getMessage(), e);
 		}
-
-		return tokenHolder.getAccessToken();
 	}
 
 	private HttpHeaders setHeaders(String token) {
-		HttpServletRequest currentRequest = ((ServletRequestAttributes) RequestContextHolder.getRequestAttributes())
-				.getRequest();
+		RequestAttributes requestAttributes = RequestContextHolder.getRequestAttributes();
+		HttpServletRequest currentRequest = requestAttributes == null ? null
+				: ((ServletRequestAttributes) requestAttributes).getRequest();
 		HttpHeaders httpHeaders = new HttpHeaders();
 
 		httpHeaders.set("X-IDAP-NATIVE-CLIENT", "true");
 		httpHeaders.set("content-type", "application/json");
 		httpHeaders.set("cache-control", "no-cache");
 		httpHeaders.set("Authorization", "Bearer " + token);
-		if (currentRequest.getHeader("CLIENT_IP") != null) {
+		if (currentRequest != null && currentRequest.getHeader("CLIENT_IP") != null) {
 			httpHeaders.set("X_FORWARDED_FOR", currentRequest.getHeader("CLIENT_IP"));
 		}
 		return httpHeaders;
@@ -120,7 +196,7 @@ public class UserService {
 
 	public ResponseEntity<JsonNode> createUser(User user, boolean enableMFAWidgetFlow) throws Exception {
 		try {
-			UserManagement userManagement = new UserManagement(settingsService.getTenantURL());
+			UserManagement userManagement = sdkClients.getUserManagement(settingsService.getTenantURL());
 
 			SignUpRequest signUpRequest = null;
 			if (settingsService.isCaptchaEnabledInSettings()) {
@@ -172,6 +248,14 @@ public class UserService {
 	}
 
 	public String getRoleUuid(String roleName) throws RoleNotFoundException, Exception {
+		RoleLookup lookup = Futures.getUnwrapped(() -> roleUuidCache.get(roleName));
+		if (!lookup.isFound()) {
+			throw new RoleNotFoundException(roleName);
+		}
+		return lookup.roleUuid;
+	}
+
+	private RoleLookup queryRoleUuid(String roleName) throws Exception {
 		String getRoles = settingsService.getTenantURL() + "/Redrock/query";
 		HttpHeaders headers = prepareForRequestOauth();
 		HttpEntity<String> getRolesRequest = new HttpEntity<>(
@@ -181,17 +265,14 @@ public class UserService {
 		ResponseEntity<JsonNode> getRoleInfo = restTemplate.exchange(getRoles, HttpMethod.POST, getRolesRequest,
 				JsonNode.class);
 		JsonNode node = getRoleInfo.getBody().get("Result").get("Results");
-		String roleUuid = null;
 		if (node.size() == 1) {
 			for (JsonNode objNode : node) {
 				if (objNode.has("Row")) {
-					return objNode.get("Row").get("ID").asText();
+					return new RoleLookup(objNode.get("Row").get("ID").asText());
 				}
 			}
-		} else {
-			throw new RoleNotFoundException(roleName);
 		}
-		return roleUuid;
+		return new RoleLookup(null);
 	}
 
 	public DBUser Get(String name, char[] password) {
@@ -211,4 +292,16 @@ public class UserService {
 	public DBUser Get(Integer id) {
 		return repo.findById(id).get();
 	}
+
+	private static final class RoleLookup {
+		private final String roleUuid;
+
+		private RoleLookup(String roleUuid) {
+			this.roleUuid = roleUuid;
+		}
+
+		private boolean isFound() {
+			return roleUuid != null;
+		}
+	}
 }
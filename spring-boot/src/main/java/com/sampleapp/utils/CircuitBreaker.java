@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Count based circuit breaker.
+ *  Closed: calls pass, the outcome of the last slidingWindowSize calls is recorded. Once at least minimumCalls are
+ *  recorded and the failure rate reaches the threshold, the breaker opens.
+ *  Open: calls are rejected until openDurationMillis has passed, then a single probe call is let through (half open).
+ *  Half open: the probe's outcome closes the breaker again or re-opens it.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureRateThreshold;
+
+    private final int minimumCalls;
+
+    private final long openDurationMillis;
+
+    private final boolean[] outcomes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int recorded;
+
+    private int next;
+
+    private int failures;
+
+    private volatile State state = State.CLOSED;
+
+    private long openedAt;
+
+    private boolean probeInFlight;
+
+    /**
+     *  @param failureRateThreshold Failure percentage (1-100) opening the breaker
+     *  @param slidingWindowSize    Number of most recent calls the failure rate is computed over
+     *  @param minimumCalls         Calls to record before the failure rate is evaluated
+     *  @param openDurationMillis   Time the breaker stays open before probing
+     */
+    public CircuitBreaker(int failureRateThreshold, int slidingWindowSize, int minimumCalls, long openDurationMillis) {
+        this.failureRateThreshold = failureRateThreshold;
+        this.minimumCalls = Math.min(minimumCalls, slidingWindowSize);
+        this.openDurationMillis = openDurationMillis;
+        this.outcomes = new boolean[slidingWindowSize];
+    }
+
+    /**
+     *  @return true when the call may proceed, its outcome must then be reported with onSuccess / onFailure
+     */
+    public boolean tryAcquire() {
+        if (state == State.CLOSED) {
+            return true;
+        }
+        lock.lock();
+        try {
+            if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDurationMillis) {
+                state = State.HALF_OPEN;
+                probeInFlight = false;
+            }
+            if (state == State.HALF_OPEN && !probeInFlight) {
+                probeInFlight = true;
+                return true;
+            }
+            return state == State.CLOSED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void onSuccess() {
+        record(false);
+    }
+
+    public void onFailure() {
+        record(true);
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    private void record(boolean failure) {
+        lock.lock();
+        try {
+            if (state == State.HALF_OPEN) {
+                if (failure) {
+                    open();
+                } else {
+                    reset();
+                }
+                return;
+            }
+            if (state == State.OPEN) {
+                return;
+            }
+            if (recorded == outcomes.length) {
+                failures -= outcomes[next] ? 1 : 0;
+            } else {
+                recorded++;
+            }
+            outcomes[next] = failure;
+            failures += failure ? 1 : 0;
+            next = (next + 1) % outcomes.length;
+            if (recorded >= minimumCalls && failures * 100 >= failureRateThreshold * recorded) {
+                open();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probeInFlight = false;
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        recorded = 0;
+        next = 0;
+        failures = 0;
+        probeInFlight = false;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+
+/**
+ *  Counts connections handed to calls against connections actually opened, so connection reuse shows up in metrics.
+ *  Published as "{metricName}" counters tagged event=acquired / event=established;
+ *  the reuse ratio is 1 - established / acquired.
+ */
+public class ConnectionReuseListener extends EventListener {
+
+    private final Counter acquired;
+
+    private final Counter established;
+
+    public ConnectionReuseListener(MeterRegistry meterRegistry, String metricName) {
+        this.acquired = Counter.builder(metricName)
+                .description("Connections acquired by calls, pooled or new")
+                .tag("event", "acquired")
+                .register(meterRegistry);
+        this.established = Counter.builder(metricName)
+                .description("Connections newly established (TCP and TLS handshake)")
+                .tag("event", "established")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        acquired.increment();
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        established.increment();
+    }
+}
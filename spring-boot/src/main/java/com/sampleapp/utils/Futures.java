@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ *  Helpers for CompletableFuture pipelines whose steps throw checked exceptions.
+ */
+public final class Futures {
+
+    @FunctionalInterface
+    public interface ThrowingSupplier<T> {
+        T get() throws Exception;
+    }
+
+    @FunctionalInterface
+    public interface ThrowingFunction<T, R> {
+        R apply(T t) throws Exception;
+    }
+
+    private Futures() { }
+
+    /**
+     *  Run a blocking call on the executor.
+     *  @param supplier Blocking call
+     *  @param executor Executor to run it on
+     *  @return future completed with the result, or exceptionally with what the call threw
+     */
+    public static <T> CompletableFuture<T> supplyAsync(ThrowingSupplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return supplier.get();
+            } catch (Exception ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    /**
+     *  @param function Pipeline step throwing checked exceptions
+     *  @return the step, rethrowing checked exceptions wrapped in a CompletionException
+     */
+    public static <T, R> Function<T, R> unchecked(ThrowingFunction<T, R> function) {
+        return t -> {
+            try {
+                return function.apply(t);
+            } catch (Exception ex) {
+                throw ex instanceof CompletionException ? (CompletionException) ex : new CompletionException(ex);
+            }
+        };
+    }
+
+    /**
+     *  @param ex Exception a future completed with
+     *  @return the exception thrown by the failed step, without CompletionException / ExecutionException wrappers
+     */
+    public static Throwable unwrap(Throwable ex) {
+        Throwable cause = ex;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     *  Run a synchronous call that reports failures as CompletionException, such as a
+     *  Caffeine LoadingCache.get or CompletableFuture.join.
+     *  @param call Call to run
+     *  @return the call's result
+     *  @throws Exception the exception thrown by the failed step; Errors stay wrapped in the CompletionException
+     */
+    public static <T> T getUnwrapped(Supplier<T> call) throws Exception {
+        try {
+            return call.get();
+        } catch (CompletionException ex) {
+            Throwable cause = unwrap(ex);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sampleapp.entity.AuthRequest;
+import com.sampleapp.entity.UISettings;
+import com.sampleapp.entity.User;
+import com.sampleapp.entity.VerifyTotpReq;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ *  One shared ObjectMapper, configured like a plain new ObjectMapper(), for everything that used to build a mapper per call.
+ *  Mappers, readers and writers are thread safe once built. The readers and writers of the types sent on every
+ *  request are built once up front, so their (de)serializers are looked up once instead of on each call.
+ */
+public final class Json {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static final ObjectWriter AUTH_REQUEST_WRITER = MAPPER.writerFor(AuthRequest.class);
+
+    public static final ObjectWriter USER_WRITER = MAPPER.writerFor(User.class);
+
+    public static final ObjectWriter VERIFY_TOTP_WRITER = MAPPER.writerFor(VerifyTotpReq.class);
+
+    public static final ObjectReader UI_SETTINGS_READER = MAPPER.readerFor(UISettings.class);
+
+    private Json() { }
+
+    public static ObjectMapper mapper() {
+        return MAPPER;
+    }
+
+    public static ObjectNode createObjectNode() {
+        return MAPPER.createObjectNode();
+    }
+
+    public static JsonNode readTree(byte[] content) throws IOException {
+        return MAPPER.readTree(content);
+    }
+
+    public static JsonNode readTree(Reader reader) throws IOException {
+        return MAPPER.readTree(reader);
+    }
+
+    /**
+     *  @param content JSON document
+     *  @return streaming parser over the document, for reading a few fields without building a tree
+     */
+    public static JsonParser createParser(byte[] content) throws IOException {
+        return MAPPER.getFactory().createParser(content);
+    }
+
+    /**
+     *  Read one member of the Result object of a tenant response without building a tree.
+     *  Stops reading once Result has been read.
+     *  @param body  tenant response body
+     *  @param field name of the member of Result
+     *  @return text value of the member, null when the body, Result or the member is missing or the member is not a scalar
+     */
+    public static String findResultField(byte[] body, String field) throws IOException {
+        if (body == null || body.length == 0) {
+            return null;
+        }
+        try (JsonParser parser = createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!"Result".equals(name)) {
+                    parser.skipChildren();
+                    continue;
+                }
+                if (value != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    boolean found = field.equals(parser.getCurrentName());
+                    parser.nextToken();
+                    if (found) {
+                        return parser.getValueAsString();
+                    }
+                    parser.skipChildren();
+                }
+                return null;
+            }
+            return null;
+        }
+    }
+
+    public static String writeValueAsString(Object value) throws JsonProcessingException {
+        return MAPPER.writeValueAsString(value);
+    }
+
+    public static byte[] writeValueAsBytes(Object value) throws JsonProcessingException {
+        return MAPPER.writeValueAsBytes(value);
+    }
+
+    public static <T extends JsonNode> T valueToTree(Object value) {
+        return MAPPER.valueToTree(value);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Keeps the latencies of the most recent calls and derives a timeout from their 99th percentile.
+ *  The percentile is recomputed every recomputeEvery samples, so reading the timeout costs nothing.
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+
+    private final int minSamples;
+
+    private final int recomputeEvery;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private int recorded;
+
+    private int next;
+
+    private int sinceRecompute;
+
+    private volatile long p99Millis = -1;
+
+    /**
+     *  @param windowSize Number of most recent samples kept
+     *  @param minSamples Samples required before a percentile is reported
+     */
+    public LatencyWindow(int windowSize, int minSamples) {
+        this.samples = new long[windowSize];
+        this.minSamples = Math.min(minSamples, windowSize);
+        this.recomputeEvery = Math.max(1, windowSize / 10);
+    }
+
+    public void record(long latencyMillis) {
+        lock.lock();
+        try {
+            samples[next] = latencyMillis;
+            next = (next + 1) % samples.length;
+            recorded = Math.min(recorded + 1, samples.length);
+            if (recorded >= minSamples && (++sinceRecompute >= recomputeEvery || p99Millis < 0)) {
+                long[] sorted = Arrays.copyOf(samples, recorded);
+                Arrays.sort(sorted);
+                p99Millis = sorted[(int) Math.ceil(recorded * 0.99) - 1];
+                sinceRecompute = 0;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  @return 99th percentile latency of the window, -1 until minSamples calls are recorded
+     */
+    public long getP99Millis() {
+        return p99Millis;
+    }
+
+    /**
+     *  @param multiplier Head room over the p99
+     *  @param minMillis  Lower bound
+     *  @param maxMillis  Upper bound, also used until enough samples are recorded
+     *  @return timeout for the next call
+     */
+    public long timeoutMillis(double multiplier, long minMillis, long maxMillis) {
+        long p99 = p99Millis;
+        if (p99 < 0) {
+            return maxMillis;
+        }
+        return Math.max(minMillis, Math.min(maxMillis, (long) (p99 * multiplier)));
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *  Limits retries to a fraction of the traffic, so retries cannot multiply the load on a degraded backend.
+ *  Every call deposits ratio of a token, every retry withdraws a whole token. A minimum number of retries per second
+ *  is always available, so low traffic can still retry. The balance is capped, so quiet periods do not build up a burst.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+
+    private final double minRetriesPerSec;
+
+    private final double maxBalance;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private double balance;
+
+    private long lastRefillNanos = System.nanoTime();
+
+    /**
+     *  @param ratio            Retries allowed per call, e.g. 0.1 for 10%
+     *  @param minRetriesPerSec Retries always allowed per second
+     *  @param maxBalance       Upper bound of the token balance
+     */
+    public RetryBudget(double ratio, double minRetriesPerSec, double maxBalance) {
+        this.ratio = ratio;
+        this.minRetriesPerSec = minRetriesPerSec;
+        this.maxBalance = maxBalance;
+        this.balance = minRetriesPerSec;
+    }
+
+    public void deposit() {
+        lock.lock();
+        try {
+            refill();
+            balance = Math.min(maxBalance, balance + ratio);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  @return true when a retry may be made, its token is then withdrawn
+     */
+    public boolean tryWithdraw() {
+        lock.lock();
+        try {
+            refill();
+            if (balance < 1) {
+                return false;
+            }
+            balance -= 1;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *  Exponential backoff with full jitter: a random delay between 0 and min(maxMillis, baseMillis * 2^attempt).
+     *  @param attempt    Retry number, starting at 0
+     *  @param baseMillis Delay bound of the first retry
+     *  @param maxMillis  Delay bound cap
+     *  @return delay before the retry in millis
+     */
+    public static long backoffMillis(int attempt, long baseMillis, long maxMillis) {
+        long bound = Math.min(maxMillis, baseMillis << Math.min(attempt, 20));
+        return ThreadLocalRandom.current().nextLong(bound + 1);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double elapsedSec = (now - lastRefillNanos) / 1e9;
+        lastRefillNanos = now;
+        balance = Math.min(maxBalance, balance + elapsedSec * minRetriesPerSec);
+    }
+}
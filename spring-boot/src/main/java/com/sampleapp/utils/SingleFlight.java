@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ *  Coalesces concurrent calls for the same key into a single execution.
+ *  The first caller for a key runs the call, every caller arriving while it is in flight waits on its result.
+ *  Per tag set of the keys, the number of executions and of coalesced waiters is published as "{metricName}" counters
+ *  tagged role=leader / role=waiter, plus a "{metricName}.waiting" gauge for callers currently parked.
+ *  Keys with the same tags share their meters, so the tags need not, and should not, identify the key.
+ *  @param <K> key type, must implement equals/hashCode
+ *  @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    @FunctionalInterface
+    public interface Call<V> {
+        V call() throws IOException;
+    }
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final ConcurrentHashMap<Tags, KeyStats> stats = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final String metricName;
+
+    private final Function<K, Tags> keyTags;
+
+    public SingleFlight(MeterRegistry meterRegistry, String metricName, Function<K, Tags> keyTags) {
+        this.meterRegistry = meterRegistry;
+        this.metricName = metricName;
+        this.keyTags = keyTags;
+    }
+
+    /**
+     *  Run the call for the key, or wait for the result of the call already in flight for it.
+     *  @param key  Coalescing key
+     *  @param call Call to execute when no call for the key is in flight
+     *  @return result of the (possibly shared) call
+     *  @throws IOException thrown by the (possibly shared) call
+     */
+    public V execute(K key, Call<V> call) throws IOException {
+        KeyStats keyStats = stats.computeIfAbsent(keyTags.apply(key), this::register);
+        CompletableFuture<V> leaderFuture = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, leaderFuture);
+        if (existing != null) {
+            keyStats.waiters.increment();
+            return await(existing, keyStats);
+        }
+
+        keyStats.leaders.increment();
+        try {
+            V result = call.call();
+            leaderFuture.complete(result);
+            return result;
+        } catch (IOException | RuntimeException | Error ex) {
+            leaderFuture.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inFlight.remove(key, leaderFuture);
+        }
+    }
+
+    private V await(CompletableFuture<V> future, KeyStats keyStats) throws IOException {
+        keyStats.waiting.incrementAndGet();
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for in-flight call");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            keyStats.waiting.decrementAndGet();
+        }
+    }
+
+    private KeyStats register(Tags tags) {
+        KeyStats keyStats = new KeyStats();
+        FunctionCounter.builder(metricName, keyStats.leaders, LongAdder::doubleValue)
+                .description("Calls executed against the remote endpoint")
+                .tags(tags).tag("role", "leader")
+                .register(meterRegistry);
+        FunctionCounter.builder(metricName, keyStats.waiters, LongAdder::doubleValue)
+                .description("Calls coalesced onto an in-flight call")
+                .tags(tags).tag("role", "waiter")
+                .register(meterRegistry);
+        Gauge.builder(metricName + ".waiting", keyStats.waiting, AtomicInteger::get)
+                .description("Callers currently waiting on an in-flight call")
+                .tags(tags)
+                .register(meterRegistry);
+        return keyStats;
+    }
+
+    private static class KeyStats {
+        private final LongAdder leaders = new LongAdder();
+        private final LongAdder waiters = new LongAdder();
+        private final AtomicInteger waiting = new AtomicInteger();
+    }
+}
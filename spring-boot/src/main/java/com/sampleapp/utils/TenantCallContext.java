@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+/**
+ *  Context of the browser request an outbound tenant call is made for, used to tag tenant call metrics.
+ *  It is bound to the request thread and carried across async hops by wrapping the tasks handed to executors.
+ */
+public final class TenantCallContext {
+
+    public static final TenantCallContext NONE = new TenantCallContext("none");
+
+    private static final TenantCallContext[] FLOWS = {
+            new TenantCallContext("flow1"), new TenantCallContext("flow2"), new TenantCallContext("flow3")
+    };
+
+    private static final ThreadLocal<TenantCallContext> CURRENT = new ThreadLocal<>();
+
+    private final String flow;
+
+    private TenantCallContext(String flow) {
+        this.flow = flow;
+    }
+
+    /**
+     *  @param flow value of the flow cookie, may be null
+     *  @return context for a known flow, NONE for anything else so metric tags stay bounded
+     */
+    public static TenantCallContext ofFlow(String flow) {
+        for (TenantCallContext context : FLOWS) {
+            if (context.flow.equals(flow)) {
+                return context;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     *  @return context bound to the current thread, NONE when there is none
+     */
+    public static TenantCallContext current() {
+        TenantCallContext context = CURRENT.get();
+        return context == null ? NONE : context;
+    }
+
+    public static void set(TenantCallContext context) {
+        CURRENT.set(context);
+    }
+
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     *  @param task task to run on another thread
+     *  @return task that runs with the context of the submitting thread
+     */
+    public static Runnable wrap(Runnable task) {
+        TenantCallContext captured = current();
+        return () -> runWith(captured, task);
+    }
+
+    /**
+     *  Run a task with the given context bound to the current thread, restoring the previous one afterwards.
+     *  @param context context to bind
+     *  @param task    task to run
+     */
+    public static void runWith(TenantCallContext context, Runnable task) {
+        TenantCallContext previous = CURRENT.get();
+        CURRENT.set(context);
+        try {
+            task.run();
+        } finally {
+            CURRENT.set(previous);
+        }
+    }
+
+    public String getFlow() {
+        return flow;
+    }
+}
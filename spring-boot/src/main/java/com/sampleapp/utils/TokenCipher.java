@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.utils;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ *  AES-GCM encryption of tokens that have to be stored to be used later, e.g. to be revoked.
+ *  Encrypted values are prefixed with their format version; values without the prefix are taken as plain text,
+ *  so rows written before encryption was introduced can still be read.
+ */
+public final class TokenCipher {
+
+    private static final String PREFIX = "v1:";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH_BITS = 128;
+
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+
+    private TokenCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     *  @param base64Key base64 encoded AES key of 16, 24 or 32 bytes
+     *  @return cipher using the key
+     */
+    public static TokenCipher withKey(String base64Key) {
+        byte[] key = Base64.getDecoder().decode(base64Key);
+        if (key.length != 16 && key.length != 24 && key.length != 32) {
+            throw new IllegalArgumentException("AES key must be 16, 24 or 32 bytes long, was " + key.length);
+        }
+        return new TokenCipher(new SecretKeySpec(key, "AES"));
+    }
+
+    /**
+     *  @return cipher using a random 256 bit key, only valid for the life of this process
+     */
+    public static TokenCipher withRandomKey() {
+        try {
+            KeyGenerator generator = KeyGenerator.getInstance("AES");
+            generator.init(256);
+            return new TokenCipher(generator.generateKey());
+        } catch (GeneralSecurityException ex) {
+            // Every Java platform is required to support AES
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    public String encrypt(String token) {
+        byte[] iv = new byte[IV_LENGTH];
+        random.nextBytes(iv);
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+            byte[] encrypted = cipher.doFinal(token.getBytes(StandardCharsets.UTF_8));
+            ByteBuffer value = ByteBuffer.allocate(iv.length + encrypted.length).put(iv).put(encrypted);
+            return PREFIX + Base64.getEncoder().encodeToString(value.array());
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Encrypting token failed", ex);
+        }
+    }
+
+    /**
+     *  @param value value returned by encrypt, or a plain text token
+     *  @return token
+     *  @throws GeneralSecurityException when the value was encrypted with another key or has been tampered with
+     */
+    public String decrypt(String value) throws GeneralSecurityException {
+        if (!value.startsWith(PREFIX)) {
+            return value;
+        }
+        byte[] decoded = Base64.getDecoder().decode(value.substring(PREFIX.length()));
+        if (decoded.length < IV_LENGTH) {
+            throw new GeneralSecurityException("Encrypted token is truncated");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH_BITS, decoded, 0, IV_LENGTH));
+        return new String(cipher.doFinal(decoded, IV_LENGTH, decoded.length - IV_LENGTH), StandardCharsets.UTF_8);
+    }
+}
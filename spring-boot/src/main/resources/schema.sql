@@ -10,11 +10,24 @@ CREATE TABLE `dbuser` (
 CREATE TABLE `token_store` (
   `user_id` INT PRIMARY KEY,
   `mfa_token` VARCHAR(1000) DEFAULT NULL,
+  `mfa_token_hash` CHAR(64) DEFAULT NULL,
   `session_uuid` VARCHAR(128) DEFAULT NULL,
   `last_active_date_time` DATETIME DEFAULT NULL
 );
 
+ALTER TABLE `token_store` ADD CONSTRAINT `uk_token_store_session_uuid` UNIQUE (`session_uuid`);
+ALTER TABLE `token_store` ADD CONSTRAINT `uk_token_store_mfa_token_hash` UNIQUE (`mfa_token_hash`);
+CREATE INDEX `idx_token_store_last_active_date_time` ON `token_store` (`last_active_date_time`);
+
 CREATE TABLE `mfa_user_mapping` (
   `user_id` int NOT NULL PRIMARY KEY,
   `mfa_user_id` varchar(64) DEFAULT NULL
-);
\ No newline at end of file
+);
+
+CREATE TABLE `pending_revocation` (
+  `id` int AUTO_INCREMENT PRIMARY KEY,
+  `token` VARCHAR(6000) DEFAULT NULL,
+  `attempts` INT DEFAULT NULL,
+  `next_attempt_date_time` DATETIME DEFAULT NULL,
+  `claimed_until` DATETIME DEFAULT NULL
+);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2022 CyberArk Software Ltd. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.sampleapp.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JwtValidationServiceTest {
+
+    private static final String TENANT_URL = "https://tenant.example.com";
+
+    private static final String APP_ID = "app1";
+
+    private static final String ISSUER = TENANT_URL + "/" + APP_ID + "/";
+
+    private final AtomicInteger jwksRequests = new AtomicInteger();
+
+    private RSAKey signingKey;
+
+    private JwtValidationService service;
+
+    @BeforeEach
+    void setUp() throws JOSEException {
+        signingKey = new RSAKeyGenerator(2048).keyID("kid1").generate();
+        String jwks = new JWKSet(signingKey.toPublicJWK()).toString();
+
+        // Serves the key set for the application without touching the network.
+        OkHttpClient httpClient = new OkHttpClient.Builder()
+                .addInterceptor(chain -> {
+                    jwksRequests.incrementAndGet();
+                    assertEquals("/OAuth2/Keys/" + APP_ID, chain.request().url().encodedPath());
+                    return new Response.Builder()
+                            .request(chain.request())
+                            .protocol(Protocol.HTTP_1_1)
+                            .code(200)
+                            .message("OK")
+                            .body(ResponseBody.create(jwks, MediaType.get("application/json")))
+                            .build();
+                })
+                .build();
+
+        SettingsService settingsService = Mockito.mock(SettingsService.class);
+        Mockito.when(settingsService.getTenantURL()).thenReturn(TENANT_URL);
+
+        service = new JwtValidationService();
+        ReflectionTestUtils.setField(service, "settingsService", settingsService);
+        ReflectionTestUtils.setField(service, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "httpClient", httpClient);
+        ReflectionTestUtils.setField(service, "enabled", true);
+        ReflectionTestUtils.setField(service, "allowedAlgorithms", new String[] { "RS256" });
+        ReflectionTestUtils.setField(service, "configuredIssuer", "");
+        ReflectionTestUtils.setField(service, "configuredAudiences", "");
+        ReflectionTestUtils.setField(service, "clockSkewInSec", 60L);
+        ReflectionTestUtils.setField(service, "jwksTtlInSec", 3600L);
+        ReflectionTestUtils.setField(service, "jwksMinRefetchIntervalInSec", 30L);
+    }
+
+    @Test
+    void acceptsValidToken() throws JOSEException {
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS256, "kid1", claims(ISSUER, inSeconds(300))), APP_ID);
+
+        assertNotNull(result);
+        assertTrue(result.get("active").asBoolean());
+        assertEquals("alice", result.get("sub").asText());
+        assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    void reusesCachedKeySet() throws JOSEException {
+        String token = sign(JWSAlgorithm.RS256, "kid1", claims(ISSUER, inSeconds(300)));
+
+        service.validate(token, APP_ID);
+        service.validate(token, APP_ID);
+
+        assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    void rejectsExpiredToken() throws JOSEException {
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS256, "kid1", claims(ISSUER, inSeconds(-120))), APP_ID);
+
+        assertInactive(result);
+    }
+
+    @Test
+    void rejectsTokenWithoutExpiry() throws JOSEException {
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS256, "kid1", claims(ISSUER, null)), APP_ID);
+
+        assertInactive(result);
+    }
+
+    @Test
+    void rejectsWrongIssuer() throws JOSEException {
+        String issuer = "https://other.example.com/" + APP_ID + "/";
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS256, "kid1", claims(issuer, inSeconds(300))), APP_ID);
+
+        assertInactive(result);
+    }
+
+    @Test
+    void rejectsAlgorithmOutsideAllowlist() throws JOSEException {
+        // Correctly signed by the published key, but with an algorithm that is not allowed.
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS384, "kid1", claims(ISSUER, inSeconds(300))), APP_ID);
+
+        assertInactive(result);
+        assertEquals(0, jwksRequests.get());
+    }
+
+    @Test
+    void leavesUnknownKeyIdToTenant() throws JOSEException {
+        JsonNode result = service.validate(sign(JWSAlgorithm.RS256, "kid2", claims(ISSUER, inSeconds(300))), APP_ID);
+
+        assertNull(result);
+        assertEquals(1, jwksRequests.get());
+    }
+
+    @Test
+    void leavesOpaqueTokenToTenant() {
+        assertNull(service.validate("opaque-access-token", APP_ID));
+        assertEquals(0, jwksRequests.get());
+    }
+
+    private String sign(JWSAlgorithm algorithm, String keyId, JWTClaimsSet claims) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(new JWSHeader.Builder(algorithm).keyID(keyId).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+
+    private static JWTClaimsSet claims(String issuer, Date expiresAt) {
+        return new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .subject("alice")
+                .audience(APP_ID)
+                .issueTime(new Date())
+                .expirationTime(expiresAt)
+                .build();
+    }
+
+    private static Date inSeconds(long seconds) {
+        return new Date(System.currentTimeMillis() + seconds * 1000);
+    }
+
+    private static void assertInactive(JsonNode result) {
+        assertNotNull(result);
+        assertFalse(result.get("active").asBoolean());
+    }
+}